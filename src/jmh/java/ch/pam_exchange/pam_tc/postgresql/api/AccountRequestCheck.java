@@ -0,0 +1,99 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Objects;
+
+import com.ca.pam.extensions.core.ConnectorJSONUtil;
+
+/*
+ * Check that the streaming parser of the connector reads a request body as
+ * ConnectorJSONUtil does. Run by RequestPathBenchmark before measuring, on
+ * the body of -Dpostgresql.bench.request, or on its own on request bodies
+ * captured from PAM with
+ *   -Djmh.main=ch.pam_exchange.pam_tc.postgresql.api.AccountRequestCheck -Djmh.args="<file> ..."
+ * Without files the bundled body is checked, with changeProcess own and other.
+ */
+public final class AccountRequestCheck {
+
+	private AccountRequestCheck() {
+	}
+
+	/**
+	 * @throws IllegalStateException if a field differs
+	 */
+	public static void run(String json) throws Exception {
+		final AccountRequest streaming = AccountRequest.parse(json.getBytes(StandardCharsets.UTF_8));
+		final AccountRequest sdk = AccountRequest.of(ConnectorJSONUtil.getTargetAccountFromJSON(json));
+		compare("", streaming, sdk);
+	}
+
+	private static void compare(String path, AccountRequest streaming, AccountRequest sdk) {
+		if (streaming == null || sdk == null) {
+			same(path + "account", streaming == null ? null : "present", sdk == null ? null : "present");
+			return;
+		}
+		same(path + "userName", streaming.userName, sdk.userName);
+		same(path + "oldUserName", streaming.oldUserName, sdk.oldUserName);
+		sameSecret(path + "password", streaming.password, sdk.password);
+		sameSecret(path + "oldPassword", streaming.oldPassword, sdk.oldPassword);
+		same(path + "changeProcess", streaming.changeProcess, sdk.changeProcess);
+		/* the master account is used, and set by AccountRequest.of, with change process other only */
+		if ("other".equals(sdk.changeProcess))
+			compare(path + "otherAccount.", streaming.master, sdk.master);
+		compare(path + "targetApplication.", streaming.application, sdk.application);
+	}
+
+	private static void compare(String path, AccountRequest.Application streaming, AccountRequest.Application sdk) {
+		if (streaming == null || sdk == null) {
+			same(path + "application", streaming == null ? null : "present", sdk == null ? null : "present");
+			return;
+		}
+		same(path + "name", streaming.name, sdk.name);
+		same(path + "hostName", streaming.hostName, sdk.hostName);
+		same(path + "deviceName", streaming.deviceName, sdk.deviceName);
+		same(path + "port", streaming.port, sdk.port);
+		same(path + "connectionTimeout", streaming.connectionTimeout, sdk.connectionTimeout);
+		same(path + "loginTimeout", streaming.loginTimeout, sdk.loginTimeout);
+		same(path + "database", streaming.database, sdk.database);
+		same(path + "useTLS", streaming.useTLS, sdk.useTLS);
+		same(path + "standbyHosts", streaming.standbyHosts, sdk.standbyHosts);
+	}
+
+	/*
+	 * Empty and missing strings are the same, the SDK returns either
+	 */
+	private static void same(String field, String streaming, String sdk) {
+		final String a = streaming == null ? "" : streaming;
+		final String b = sdk == null ? "" : sdk;
+		if (!Objects.equals(a, b))
+			throw new IllegalStateException("Request field " + field + " is '" + a + "', ConnectorJSONUtil '" + b + "'");
+	}
+
+	private static void sameSecret(String field, String streaming, String sdk) {
+		if (!Objects.equals(streaming == null ? "" : streaming, sdk == null ? "" : sdk))
+			throw new IllegalStateException("Request field " + field + " differs from ConnectorJSONUtil");
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			for (String changeProcess : new String[] { "own", "other" }) {
+				run(RequestTemplate.load()
+						.with("userName", "app_user")
+						.with("password", "New-Passw0rd!")
+						.with("oldPassword", "Old-Passw0rd!")
+						.with("changeProcess", changeProcess)
+						.with("masterUserName", "pam_master")
+						.with("masterPassword", "Master-Passw0rd!")
+						.build());
+			}
+			System.out.println("Request body parsed as ConnectorJSONUtil does");
+			return;
+		}
+		for (String file : args) {
+			run(Files.readString(Paths.get(file), StandardCharsets.UTF_8));
+			System.out.println(file + " parsed as ConnectorJSONUtil does");
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.TimeoutHandler;
+
+/*
+ * Throughput of verify requests processed on the request threads (blocking,
+ * postgresql.async.enabled false) and handed over to RequestExecutor
+ * (async), against the in-process FakePostgreSQLServer with added login
+ * latency. A fixed pool of containerThreads threads stands for the Tomcat
+ * connector (maxThreads), the clients wait for the response of each request.
+ *
+ *   --containerThreads <n>      request threads of the container, default 20
+ *   --concurrency <n>           clients sending at the same time, default 200
+ *   --requests <n>              requests measured per mode, default 2000
+ *   --latency <millis>          added to each login (AUTH), default 50
+ *
+ * Run with
+ *   -Djmh.main=ch.pam_exchange.pam_tc.postgresql.api.AsyncComparison -Djmh.args="--latency 50"
+ * The verifies use the protocol probe and no verification cache, thus every
+ * request logs in. The request timeout of the async mode is not applied.
+ */
+public final class AsyncComparison {
+
+	/*
+	 * Strong reference, the connector logging is off during the comparison
+	 */
+	private static final Logger CONNECTOR_LOGGER = Logger.getLogger("ch.pam_exchange.pam_tc.postgresql.api");
+
+	private static final String PASSWORD = "Passw0rd!";
+
+	private final ExecutorService container;
+	private final byte[] body;
+	private final LongAdder failures = new LongAdder();
+
+	private AsyncComparison(int containerThreads, byte[] body) {
+		final AtomicInteger counter = new AtomicInteger();
+		this.container = Executors.newFixedThreadPool(containerThreads, r -> {
+			Thread t = new Thread(r, "container-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.body = body;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int containerThreads = 20;
+		int concurrency = 200;
+		int requests = 2000;
+		long latency = 50;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			final String value = args[i + 1];
+			switch (args[i]) {
+			case "--containerThreads": containerThreads = Integer.parseInt(value); break;
+			case "--concurrency": concurrency = Integer.parseInt(value); break;
+			case "--requests": requests = Integer.parseInt(value); break;
+			case "--latency": latency = Long.parseLong(value); break;
+			default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		/*
+		 * Before the connector classes read their settings
+		 */
+		setDefault("postgresql.verify.mode", "probe");
+		setDefault("postgresql.verifycache.ttl", "0");
+		CONNECTOR_LOGGER.setLevel(Level.OFF);
+
+		try (FakePostgreSQLServer server = new FakePostgreSQLServer()
+				.setAuthMethod(FakePostgreSQLServer.AuthMethod.MD5)
+				.setLatency(FakePostgreSQLServer.Stage.AUTH, latency, 0)
+				.addRole("app_user", PASSWORD, true, false)) {
+			final byte[] body = RequestTemplate.load().with("port", Integer.toString(server.getPort()))
+					.with("userName", "app_user").with("password", PASSWORD).build().getBytes(StandardCharsets.UTF_8);
+			final AsyncComparison comparison = new AsyncComparison(containerThreads, body);
+
+			System.out.printf("containerThreads %d, concurrency %d, requests %d, login latency %d ms%n",
+					containerThreads, concurrency, requests, latency);
+			for (boolean async : new boolean[] { false, true }) {
+				comparison.run(async, Math.max(concurrency, requests / 10), concurrency);
+				comparison.failures.reset();
+				final long start = System.nanoTime();
+				final long[] latencies = comparison.run(async, requests, concurrency);
+				final long elapsed = System.nanoTime() - start;
+				Arrays.sort(latencies);
+				System.out.printf("%-8s %8.1f req/s  p50 %7.2f ms  p99 %7.2f ms  failed %d%n",
+						async ? "async" : "blocking", requests / (elapsed / 1e9),
+						LoadTest.percentile(latencies, 0.50), LoadTest.percentile(latencies, 0.99), comparison.failures.sum());
+			}
+			comparison.container.shutdownNow();
+		}
+		RequestExecutor.shutdown();
+		System.exit(0);
+	}
+
+	private static void setDefault(String key, String value) {
+		if (System.getProperty(key) == null)
+			System.setProperty(key, value);
+	}
+
+	/*
+	 * Send the requests from concurrency clients, return the latency of
+	 * each request in nanoseconds
+	 */
+	private long[] run(boolean async, int requests, int concurrency) throws InterruptedException {
+		final long[] latencies = new long[requests];
+		final AtomicInteger next = new AtomicInteger();
+		final Thread[] clients = new Thread[concurrency];
+		for (int t = 0; t < concurrency; t++) {
+			clients[t] = new Thread(() -> {
+				int i;
+				while ((i = next.getAndIncrement()) < requests) {
+					final long start = System.nanoTime();
+					this.send(async).join();
+					latencies[i] = System.nanoTime() - start;
+				}
+			}, "client-" + t);
+			clients[t].start();
+		}
+		for (Thread client : clients) {
+			client.join();
+		}
+		return latencies;
+	}
+
+	/*
+	 * One request on a container thread, as Credentials.credentialsValidate
+	 */
+	private CompletableFuture<Object> send(boolean async) {
+		final Completion response = new Completion();
+		this.container.execute(() -> {
+			if (async)
+				RequestExecutor.submit(response, () -> { this.verify(); return null; }, true);
+			else
+				response.resume((Object) this.verify());
+		});
+		return response.done;
+	}
+
+	private PostgreSQL.Failure verify() {
+		try {
+			final PostgreSQL.Failure failure = new PostgreSQL(AccountRequest.parse(this.body)).verify();
+			if (failure != null)
+				this.failures.increment();
+			return failure;
+		}
+		catch (Exception e) {
+			this.failures.increment();
+			return null;
+		}
+	}
+
+	/*
+	 * Suspended response completing a future, no timeout
+	 */
+	private static final class Completion implements AsyncResponse {
+		private final CompletableFuture<Object> done = new CompletableFuture<>();
+
+		public boolean resume(Object response) {
+			return this.done.complete(response);
+		}
+
+		public boolean resume(Throwable response) {
+			return this.done.complete(response);
+		}
+
+		public boolean cancel() {
+			return this.done.cancel(false);
+		}
+
+		public boolean cancel(int retryAfter) {
+			return this.cancel();
+		}
+
+		public boolean cancel(Date retryAfter) {
+			return this.cancel();
+		}
+
+		public boolean isSuspended() {
+			return !this.done.isDone();
+		}
+
+		public boolean isCancelled() {
+			return this.done.isCancelled();
+		}
+
+		public boolean isDone() {
+			return this.done.isDone();
+		}
+
+		public boolean setTimeout(long time, TimeUnit unit) {
+			return true;
+		}
+
+		public void setTimeoutHandler(TimeoutHandler handler) {
+		}
+
+		public Collection<Class<?>> register(Class<?> callback) {
+			return Collections.emptyList();
+		}
+
+		public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+			return Collections.emptyMap();
+		}
+
+		public Collection<Class<?>> register(Object callback) {
+			return Collections.emptyList();
+		}
+
+		public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+			return Collections.emptyMap();
+		}
+	}
+}
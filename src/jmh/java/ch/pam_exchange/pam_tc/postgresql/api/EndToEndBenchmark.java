@@ -0,0 +1,90 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Verify and update from the request body to the server, against the
+ * in-process FakePostgreSQLServer. The verification cache is cleared
+ * before each verify, thus every verify logs in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+	private static final Logger CONNECTOR_LOGGER = Logger.getLogger("ch.pam_exchange.pam_tc.postgresql.api");
+
+	private static final String PASSWORD = "Passw0rd!";
+
+	@Param({ "SCRAM_SHA_256", "MD5" })
+	public String authMethod;
+
+	private FakePostgreSQLServer server;
+	private byte[] verifyRequest;
+	private byte[] updateOwnRequest;
+	private byte[] updateOtherRequest;
+
+	@Setup
+	public void setup() throws Exception {
+		CONNECTOR_LOGGER.setLevel(Level.OFF);
+
+		this.server = new FakePostgreSQLServer()
+				.setAuthMethod(FakePostgreSQLServer.AuthMethod.valueOf(this.authMethod))
+				.addRole("app_user", PASSWORD, true, false)
+				.addRole("pam_master", PASSWORD, true, true);
+		final String port = Integer.toString(this.server.getPort());
+
+		/*
+		 * The update sets the current password again, thus every update
+		 * logs in with the same password
+		 */
+		this.verifyRequest = RequestTemplate.load().with("port", port)
+				.with("userName", "app_user").with("password", PASSWORD).build().getBytes(StandardCharsets.UTF_8);
+		this.updateOwnRequest = RequestTemplate.load().with("port", port)
+				.with("userName", "app_user").with("password", PASSWORD).with("oldPassword", PASSWORD).build().getBytes(StandardCharsets.UTF_8);
+		this.updateOtherRequest = RequestTemplate.load().with("port", port)
+				.with("userName", "app_user").with("password", PASSWORD).with("changeProcess", "other")
+				.with("masterUserName", "pam_master").with("masterPassword", PASSWORD).build().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@TearDown
+	public void tearDown() {
+		MasterConnectionPool.getInstance().close();
+		this.server.close();
+	}
+
+	@Benchmark
+	public PostgreSQL.Failure verify() throws Exception {
+		VerificationCache.getInstance().clear();
+		return new PostgreSQL(AccountRequest.parse(this.verifyRequest)).verify();
+	}
+
+	@Benchmark
+	public void updateOwn() throws Exception {
+		new PostgreSQL(AccountRequest.parse(this.updateOwnRequest)).credentialUpdate();
+	}
+
+	@Benchmark
+	public void updateOther() throws Exception {
+		new PostgreSQL(AccountRequest.parse(this.updateOtherRequest)).credentialUpdate();
+	}
+}
@@ -0,0 +1,1017 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+/*
+ * In-process stand-in for a PostgreSQL server, speaking enough of the wire
+ * protocol for the connector and the JDBC driver: SSLRequest, startup,
+ * cleartext, MD5 and SCRAM-SHA-256 authentication, simple and extended
+ * query protocol for BEGIN/COMMIT/ROLLBACK, SET, SELECT 1 and
+ * ALTER USER ... PASSWORD with a password or a SCRAM-SHA-256 verifier.
+ *
+ * Roles and databases are kept in memory. The error messages are those of
+ * a real server, thus the connector classifies them the same way. Latency
+ * can be added to the stages of a session and failures injected at random.
+ *
+ * Run standalone for load tests of a deployed connector:
+ *   java ... FakePostgreSQLServer --port 5432 --role pam_master:secret:createrole --role app_user:secret
+ */
+public final class FakePostgreSQLServer implements AutoCloseable {
+
+	public enum AuthMethod { CLEARTEXT, MD5, SCRAM_SHA_256 }
+
+	/*
+	 * Stages where latency is added
+	 *   STARTUP - before the startup message is read
+	 *   AUTH    - before the authentication result is sent
+	 *   QUERY   - before each statement is run
+	 */
+	public enum Stage { STARTUP, AUTH, QUERY }
+
+	/*
+	 * Injected failures
+	 *   DROP_CONNECTION  - the connection is closed without a reply
+	 *   TOO_MANY_CLIENTS - the login is refused with "sorry, too many clients already"
+	 *   PASSWORD_FAILED  - the authentication fails whatever the password
+	 *   STATEMENT_FAILED - the statement is canceled with a statement timeout
+	 */
+	public enum Fault { DROP_CONNECTION, TOO_MANY_CLIENTS, PASSWORD_FAILED, STATEMENT_FAILED }
+
+	private static final int PROTOCOL_3 = 196608;
+	private static final int SSL_REQUEST_CODE = 80877103;
+	private static final int GSSENC_REQUEST_CODE = 80877104;
+	private static final int CANCEL_REQUEST_CODE = 80877102;
+	private static final int SCRAM_ITERATIONS = 4096;
+	private static final Pattern SCRAM_VERIFIER = Pattern.compile("SCRAM-SHA-256\\$(\\d+):([A-Za-z0-9+/=]+)\\$([A-Za-z0-9+/=]+):([A-Za-z0-9+/=]+)");
+
+	private static final Pattern ALTER_PASSWORD = Pattern.compile(
+			"ALTER\\s+(?:USER|ROLE)\\s+(\"(?:[^\"]|\"\")+\"|[A-Za-z_][A-Za-z0-9_$]*)\\s+(?:WITH\\s+)?(?:ENCRYPTED\\s+)?PASSWORD\\s+(E?)'((?:[^']|'')*)'\\s*;?",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor;
+	private final SecureRandom random = new SecureRandom();
+	private final AtomicInteger backendPid = new AtomicInteger(10000);
+
+	private final Map<String, Role> roles = new ConcurrentHashMap<>();
+	private final Set<String> databases = ConcurrentHashMap.newKeySet();
+	private volatile AuthMethod authMethod = AuthMethod.SCRAM_SHA_256;
+	private volatile SSLContext sslContext = null;
+	private volatile boolean closed = false;
+
+	private final Map<Stage, long[]> latency = new ConcurrentHashMap<>();
+	private final Map<Fault, Double> faults = new ConcurrentHashMap<>();
+	private final AtomicLong connections = new AtomicLong();
+	private final AtomicLong executed = new AtomicLong();
+
+	/*
+	 * Listen on a free port of the loopback interface
+	 */
+	public FakePostgreSQLServer() throws IOException {
+		this(InetAddress.getLoopbackAddress(), 0);
+	}
+
+	/*
+	 * Listen on the given address and port, null for all interfaces
+	 */
+	public FakePostgreSQLServer(InetAddress address, int port) throws IOException {
+		this.serverSocket = new ServerSocket(port, 512, address);
+		final AtomicInteger counter = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "fake-postgresql-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.databases.add("postgres");
+		this.executor.execute(this::acceptLoop);
+	}
+
+	public int getPort() {
+		return this.serverSocket.getLocalPort();
+	}
+
+	public FakePostgreSQLServer setAuthMethod(AuthMethod authMethod) {
+		this.authMethod = authMethod;
+		return this;
+	}
+
+	/*
+	 * Accept SSLRequest with the given context, null to decline SSL
+	 */
+	public FakePostgreSQLServer setSSLContext(SSLContext sslContext) {
+		this.sslContext = sslContext;
+		return this;
+	}
+
+	/*
+	 * Sleep millis, plus a random 0..jitter millis, at a stage of each session
+	 */
+	public FakePostgreSQLServer setLatency(Stage stage, long millis, long jitter) {
+		this.latency.put(stage, new long[] { millis, jitter });
+		return this;
+	}
+
+	/*
+	 * Inject a failure with the given probability, 0.0 to 1.0
+	 */
+	public FakePostgreSQLServer setFault(Fault fault, double probability) {
+		this.faults.put(fault, probability);
+		return this;
+	}
+
+	/*
+	 * Connections accepted since the start
+	 */
+	public long getConnections() {
+		return this.connections.get();
+	}
+
+	/*
+	 * Statements run since the start
+	 */
+	public long getStatements() {
+		return this.executed.get();
+	}
+
+	public FakePostgreSQLServer addDatabase(String name) {
+		this.databases.add(name);
+		return this;
+	}
+
+	/*
+	 * Add or replace a role
+	 *
+	 * @param login      false for a role not permitted to log in
+	 * @param createRole role may change the password of other roles
+	 */
+	public FakePostgreSQLServer addRole(String name, String password, boolean login, boolean createRole) {
+		Role role = new Role(login, createRole);
+		role.setPassword(password, this.random);
+		this.roles.put(name, role);
+		return this;
+	}
+
+	/*
+	 * Current password of a role, null if the role does not exist or its
+	 * password was set as a SCRAM verifier
+	 */
+	public String getPassword(String name) {
+		Role role = this.roles.get(name);
+		return role == null ? null : role.secret.password;
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		try { this.serverSocket.close(); } catch (IOException e) {}
+		this.executor.shutdownNow();
+	}
+
+	private void delay(Stage stage) {
+		final long[] l = this.latency.get(stage);
+		if (l == null)
+			return;
+		final long millis = l[0] + (l[1] > 0 ? ThreadLocalRandom.current().nextLong(l[1] + 1) : 0);
+		if (millis <= 0)
+			return;
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean inject(Fault fault) {
+		final Double p = this.faults.get(fault);
+		return p != null && p > 0 && ThreadLocalRandom.current().nextDouble() < p;
+	}
+
+	private void acceptLoop() {
+		while (!this.closed) {
+			try {
+				Socket socket = this.serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				this.connections.incrementAndGet();
+				this.executor.execute(new Session(socket));
+			}
+			catch (IOException e) {
+				if (this.closed)
+					return;
+			}
+		}
+	}
+
+	/*
+	 * Password and SCRAM keys of a role, replaced as a whole. The password
+	 * is null when set as a SCRAM verifier.
+	 */
+	private static final class Secret {
+		final String password;
+		final byte[] salt;
+		final int iterations;
+		final byte[] storedKey;
+		final byte[] serverKey;
+
+		Secret(String password, byte[] salt, int iterations, byte[] storedKey, byte[] serverKey) {
+			this.password = password;
+			this.salt = salt;
+			this.iterations = iterations;
+			this.storedKey = storedKey;
+			this.serverKey = serverKey;
+		}
+
+		/*
+		 * Cleartext password check, with the SCRAM keys if only these are known
+		 */
+		boolean matches(String password) {
+			if (this.password != null)
+				return this.password.equals(password);
+			try {
+				return MessageDigest.isEqual(Scram.deriveKeys(password, this.salt, this.iterations).storedKey, this.storedKey);
+			}
+			catch (GeneralSecurityException e) {
+				return false;
+			}
+		}
+	}
+
+	private static final class Role {
+		final boolean login;
+		final boolean createRole;
+		volatile Secret secret;
+
+		Role(boolean login, boolean createRole) {
+			this.login = login;
+			this.createRole = createRole;
+		}
+
+		void setPassword(String password, SecureRandom random) {
+			final Matcher m = SCRAM_VERIFIER.matcher(password);
+			if (m.matches()) {
+				final Base64.Decoder base64 = Base64.getDecoder();
+				this.secret = new Secret(null, base64.decode(m.group(2)), Integer.parseInt(m.group(1)),
+						base64.decode(m.group(3)), base64.decode(m.group(4)));
+				return;
+			}
+			byte[] salt = new byte[16];
+			random.nextBytes(salt);
+			try {
+				Scram.Keys keys = Scram.deriveKeys(password, salt, SCRAM_ITERATIONS);
+				this.secret = new Secret(password, salt, SCRAM_ITERATIONS, keys.storedKey, keys.serverKey);
+			}
+			catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/*
+	 * Outcome of one statement
+	 */
+	private static final class Result {
+		final String tag;
+		final String value;
+		final String[] error;
+
+		private Result(String tag, String value, String[] error) {
+			this.tag = tag;
+			this.value = value;
+			this.error = error;
+		}
+
+		static Result ok(String tag) {
+			return new Result(tag, null, null);
+		}
+
+		static Result row(String tag, String value) {
+			return new Result(tag, value, null);
+		}
+
+		static Result error(String sqlState, String message) {
+			return new Result(null, null, new String[] { sqlState, message });
+		}
+	}
+
+	/*
+	 * One client connection
+	 */
+	private final class Session implements Runnable {
+		private Socket socket;
+		private DataInputStream in;
+		private DataOutputStream out;
+
+		private String user = "";
+		private String database = "";
+		private char transactionStatus = 'I';
+		private final List<Runnable> pending = new ArrayList<>();
+		private final Map<String, String> statements = new HashMap<>();
+		private final Map<String, String> portals = new HashMap<>();
+
+		Session(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (inject(Fault.DROP_CONNECTION))
+					return;
+				delay(Stage.STARTUP);
+				this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+				this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+				if (!this.startup())
+					return;
+				if (inject(Fault.TOO_MANY_CLIENTS)) {
+					this.sendError("FATAL", "53300", "sorry, too many clients already");
+					return;
+				}
+				if (!this.authenticate())
+					return;
+				if (!this.openSession())
+					return;
+				this.queryLoop();
+			}
+			catch (IOException e) {
+				/* client gone */
+			}
+			finally {
+				try { this.socket.close(); } catch (IOException e) {}
+			}
+		}
+
+		/*
+		 * Read the startup message, after SSL negotiation
+		 */
+		private boolean startup() throws IOException {
+			while (true) {
+				final int length = this.in.readInt();
+				final int code = this.in.readInt();
+				if (code == SSL_REQUEST_CODE || code == GSSENC_REQUEST_CODE) {
+					if (!this.negotiateEncryption(code))
+						return false;
+					continue;
+				}
+				if (code == CANCEL_REQUEST_CODE) {
+					return false;
+				}
+				final byte[] body = new byte[length - 8];
+				this.in.readFully(body);
+				if (code != PROTOCOL_3) {
+					this.sendError("FATAL", "0A000", "unsupported frontend protocol " + (code >> 16) + "." + (code & 0xffff));
+					return false;
+				}
+				final Body params = new Body(body);
+				while (true) {
+					String name = params.cstring();
+					if (name.isEmpty())
+						break;
+					String value = params.cstring();
+					if ("user".equals(name))
+						this.user = value;
+					else if ("database".equals(name))
+						this.database = value;
+				}
+				if (this.database.isEmpty())
+					this.database = this.user;
+				return true;
+			}
+		}
+
+		/*
+		 * Answer an SSLRequest or GSSENCRequest
+		 */
+		private boolean negotiateEncryption(int code) throws IOException {
+			final SSLContext context = sslContext;
+			if (code != SSL_REQUEST_CODE || context == null || this.socket instanceof SSLSocket) {
+				this.out.write('N');
+				this.out.flush();
+				return true;
+			}
+
+			this.out.write('S');
+			this.out.flush();
+			SSLSocket ssl = (SSLSocket) context.getSocketFactory().createSocket(this.socket, null, this.socket.getPort(), true);
+			ssl.setUseClientMode(false);
+			ssl.startHandshake();
+			this.socket = ssl;
+			this.in = new DataInputStream(new BufferedInputStream(ssl.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(ssl.getOutputStream()));
+			return true;
+		}
+
+		private boolean authenticate() throws IOException {
+			final Role role = roles.get(this.user);
+			final Secret secret = role == null || inject(Fault.PASSWORD_FAILED) ? null : role.secret;
+			boolean success;
+
+			switch (authMethod) {
+			case CLEARTEXT: {
+				this.send('R', new Msg().int32(3));
+				Body body = this.expect('p');
+				if (body == null)
+					return false;
+				success = secret != null && secret.matches(body.cstring());
+				break;
+			}
+			case MD5: {
+				/*
+				 * As a real server, SCRAM is used for a role with a verifier
+				 */
+				if (secret != null && secret.password == null) {
+					success = this.authenticateSCRAM(secret);
+					break;
+				}
+				byte[] salt = new byte[4];
+				random.nextBytes(salt);
+				this.send('R', new Msg().int32(5).bytes(salt));
+				Body body = this.expect('p');
+				if (body == null)
+					return false;
+				success = secret != null && md5Password(this.user, secret.password, salt).equals(body.cstring());
+				break;
+			}
+			default:
+				success = this.authenticateSCRAM(secret);
+				break;
+			}
+
+			delay(Stage.AUTH);
+			if (!success) {
+				this.sendError("FATAL", "28P01", "password authentication failed for user \"" + this.user + "\"");
+				return false;
+			}
+			return true;
+		}
+
+		private boolean authenticateSCRAM(Secret secret) throws IOException {
+			this.send('R', new Msg().int32(10).cstring(Scram.MECHANISM).int8(0));
+			Body body = this.expect('p');
+			if (body == null)
+				return false;
+			final String mechanism = body.cstring();
+			final String clientFirst = new String(body.bytes(body.int32()), StandardCharsets.UTF_8);
+			if (!Scram.MECHANISM.equals(mechanism)) {
+				return false;
+			}
+
+			/*
+			 * client-first-message = gs2-header client-first-message-bare
+			 */
+			final String clientFirstBare = clientFirst.substring(clientFirst.indexOf(',', clientFirst.indexOf(',') + 1) + 1);
+			final String clientNonce = attribute(clientFirstBare, 'r');
+			byte[] nonce = new byte[18];
+			random.nextBytes(nonce);
+			final String serverNonce = clientNonce + Base64.getEncoder().encodeToString(nonce);
+
+			byte[] salt = secret != null ? secret.salt : new byte[16];
+			if (secret == null)
+				random.nextBytes(salt);
+			final String serverFirst = "r=" + serverNonce + ",s=" + Base64.getEncoder().encodeToString(salt) + ",i=" + (secret != null ? secret.iterations : SCRAM_ITERATIONS);
+			this.send('R', new Msg().int32(11).bytes(serverFirst.getBytes(StandardCharsets.UTF_8)));
+
+			body = this.expect('p');
+			if (body == null)
+				return false;
+			final String clientFinal = new String(body.bytes(body.remaining()), StandardCharsets.UTF_8);
+			final int proofIndex = clientFinal.lastIndexOf(",p=");
+			if (proofIndex < 0 || !serverNonce.equals(attribute(clientFinal, 'r')) || secret == null)
+				return false;
+
+			try {
+				final byte[] authMessage = (clientFirstBare + "," + serverFirst + "," + clientFinal.substring(0, proofIndex)).getBytes(StandardCharsets.UTF_8);
+				final byte[] proof = Base64.getDecoder().decode(clientFinal.substring(proofIndex + 3));
+				final byte[] clientSignature = Scram.hmac(secret.storedKey, authMessage);
+				if (proof.length != clientSignature.length)
+					return false;
+				final byte[] clientKey = Scram.xor(proof, clientSignature);
+				if (!MessageDigest.isEqual(MessageDigest.getInstance("SHA-256").digest(clientKey), secret.storedKey))
+					return false;
+
+				final byte[] serverSignature = Scram.hmac(secret.serverKey, authMessage);
+				this.send('R', new Msg().int32(12).bytes(("v=" + Base64.getEncoder().encodeToString(serverSignature)).getBytes(StandardCharsets.UTF_8)));
+				return true;
+			}
+			catch (GeneralSecurityException | IllegalArgumentException e) {
+				return false;
+			}
+		}
+
+		/*
+		 * Authenticated, check the database and the login privilege
+		 */
+		private boolean openSession() throws IOException {
+			if (!databases.contains(this.database)) {
+				this.sendError("FATAL", "3D000", "database \"" + this.database + "\" does not exist");
+				return false;
+			}
+			if (!roles.get(this.user).login) {
+				this.sendError("FATAL", "28000", "role \"" + this.user + "\" is not permitted to log in");
+				return false;
+			}
+
+			this.send('R', new Msg().int32(0));
+			this.parameterStatus("server_version", "16.4");
+			this.parameterStatus("server_encoding", "UTF8");
+			this.parameterStatus("client_encoding", "UTF8");
+			this.parameterStatus("DateStyle", "ISO, MDY");
+			this.parameterStatus("integer_datetimes", "on");
+			this.parameterStatus("standard_conforming_strings", "on");
+			this.parameterStatus("TimeZone", "UTC");
+			this.parameterStatus("is_superuser", "off");
+			this.parameterStatus("session_authorization", this.user);
+			this.parameterStatus("application_name", "");
+			this.send('K', new Msg().int32(backendPid.incrementAndGet()).int32(random.nextInt()));
+			this.readyForQuery();
+			return true;
+		}
+
+		private void queryLoop() throws IOException {
+			boolean skipUntilSync = false;
+			while (true) {
+				final int type = this.in.read();
+				if (type < 0)
+					return;
+				final byte[] data = new byte[this.in.readInt() - 4];
+				this.in.readFully(data);
+				final Body body = new Body(data);
+
+				if (skipUntilSync && type != 'S' && type != 'X')
+					continue;
+
+				switch (type) {
+				case 'Q': {
+					Result result = this.execute(body.cstring());
+					if (result.error != null) {
+						this.sendError("ERROR", result.error[0], result.error[1]);
+					}
+					else {
+						if (result.value != null) {
+							this.rowDescription();
+							this.dataRow(result.value);
+						}
+						this.commandComplete(result);
+					}
+					this.readyForQuery();
+					break;
+				}
+				case 'P': {
+					String name = body.cstring();
+					this.statements.put(name, body.cstring());
+					this.send('1', new Msg());
+					break;
+				}
+				case 'B': {
+					String portal = body.cstring();
+					this.portals.put(portal, this.statements.getOrDefault(body.cstring(), ""));
+					this.send('2', new Msg());
+					break;
+				}
+				case 'D': {
+					char kind = (char) body.int8();
+					String name = body.cstring();
+					String query = kind == 'S' ? this.statements.getOrDefault(name, "") : this.portals.getOrDefault(name, "");
+					if (kind == 'S')
+						this.send('t', new Msg().int16(0));
+					if (returnsRow(query))
+						this.rowDescription();
+					else
+						this.send('n', new Msg());
+					break;
+				}
+				case 'E': {
+					Result result = this.execute(this.portals.getOrDefault(body.cstring(), ""));
+					if (result.error != null) {
+						this.sendError("ERROR", result.error[0], result.error[1]);
+						skipUntilSync = true;
+					}
+					else {
+						if (result.value != null)
+							this.dataRow(result.value);
+						this.commandComplete(result);
+					}
+					break;
+				}
+				case 'C':
+					this.send('3', new Msg());
+					break;
+				case 'S':
+					skipUntilSync = false;
+					this.readyForQuery();
+					break;
+				case 'H':
+					this.out.flush();
+					break;
+				case 'X':
+					return;
+				default:
+					break;
+				}
+			}
+		}
+
+		/*
+		 * Run one statement
+		 */
+		private Result execute(String sql) {
+			executed.incrementAndGet();
+			delay(Stage.QUERY);
+			if (inject(Fault.STATEMENT_FAILED)) {
+				if (this.transactionStatus == 'T')
+					this.transactionStatus = 'E';
+				return Result.error("57014", "canceling statement due to statement timeout");
+			}
+			final String query = sql.trim();
+			final String upper = query.toUpperCase(Locale.ROOT);
+
+			if (query.isEmpty())
+				return Result.ok(null);
+
+			if (upper.startsWith("COMMIT") || upper.startsWith("END")) {
+				final boolean failed = this.transactionStatus == 'E';
+				if (!failed)
+					this.pending.forEach(Runnable::run);
+				this.pending.clear();
+				this.transactionStatus = 'I';
+				return Result.ok(failed ? "ROLLBACK" : "COMMIT");
+			}
+			if (upper.startsWith("ROLLBACK")) {
+				this.pending.clear();
+				this.transactionStatus = 'I';
+				return Result.ok("ROLLBACK");
+			}
+			if (this.transactionStatus == 'E')
+				return Result.error("25P02", "current transaction is aborted, commands ignored until end of transaction block");
+
+			Result result;
+			if (upper.startsWith("BEGIN") || upper.startsWith("START TRANSACTION")) {
+				this.transactionStatus = 'T';
+				result = Result.ok("BEGIN");
+			}
+			else if (upper.startsWith("SET ")) {
+				result = Result.ok("SET");
+			}
+			else if (returnsRow(query)) {
+				result = Result.row("SELECT 1", "1");
+			}
+			else if (upper.startsWith("ALTER ")) {
+				result = this.alterPassword(query);
+			}
+			else {
+				result = Result.error("0A000", "statement not supported by the fake server");
+			}
+
+			if (result.error != null && this.transactionStatus == 'T')
+				this.transactionStatus = 'E';
+			return result;
+		}
+
+		private Result alterPassword(String query) {
+			final Matcher m = ALTER_PASSWORD.matcher(query);
+			if (!m.matches())
+				return Result.error("42601", "syntax error at or near \"ALTER\"");
+
+			String name = m.group(1);
+			if (name.startsWith("\""))
+				name = name.substring(1, name.length() - 1).replace("\"\"", "\"");
+			else
+				name = name.toLowerCase(Locale.ROOT);
+			final String password = unquote(m.group(3), !m.group(2).isEmpty());
+
+			final Role target = roles.get(name);
+			if (target == null)
+				return Result.error("42704", "role \"" + name + "\" does not exist");
+			if (!name.equals(this.user) && !roles.get(this.user).createRole)
+				return Result.error("42501", "permission denied to alter role");
+
+			final Runnable change = () -> target.setPassword(password, random);
+			if (this.transactionStatus == 'T')
+				this.pending.add(change);
+			else
+				change.run();
+			return Result.ok("ALTER ROLE");
+		}
+
+		private Body expect(char type) throws IOException {
+			final int t = this.in.read();
+			if (t != type)
+				return null;
+			final byte[] data = new byte[this.in.readInt() - 4];
+			this.in.readFully(data);
+			return new Body(data);
+		}
+
+		private void parameterStatus(String name, String value) throws IOException {
+			this.send('S', new Msg().cstring(name).cstring(value));
+		}
+
+		private void rowDescription() throws IOException {
+			this.send('T', new Msg().int16(1).cstring("?column?").int32(0).int16(0).int32(23).int16(4).int32(-1).int16(0));
+		}
+
+		private void dataRow(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			this.send('D', new Msg().int16(1).int32(bytes.length).bytes(bytes));
+		}
+
+		private void commandComplete(Result result) throws IOException {
+			if (result.tag == null)
+				this.send('I', new Msg());
+			else
+				this.send('C', new Msg().cstring(result.tag));
+		}
+
+		private void readyForQuery() throws IOException {
+			this.send('Z', new Msg().int8(this.transactionStatus));
+			this.out.flush();
+		}
+
+		private void sendError(String severity, String sqlState, String message) throws IOException {
+			this.send('E', new Msg().int8('S').cstring(severity).int8('V').cstring(severity).int8('C').cstring(sqlState).int8('M').cstring(message).int8(0));
+			this.out.flush();
+		}
+
+		private void send(char type, Msg msg) throws IOException {
+			final byte[] body = msg.toByteArray();
+			this.out.write(type);
+			this.out.writeInt(body.length + 4);
+			this.out.write(body);
+			if (type == 'R')
+				this.out.flush();
+		}
+	}
+
+	/*
+	 * SSL context with a new self-signed certificate for CN=localhost,
+	 * created with the keytool of the running JDK
+	 */
+	public static SSLContext selfSignedContext() throws IOException, GeneralSecurityException {
+		final char[] password = "fake-postgresql".toCharArray();
+		final Path keyStore = Files.createTempFile("fake-postgresql", ".p12");
+		try {
+			Files.delete(keyStore);
+			final String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+			Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1",
+					"-dname", "CN=localhost", "-validity", "7", "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+					"-storepass", new String(password), "-keypass", new String(password))
+					.redirectErrorStream(true).start();
+			p.getInputStream().transferTo(OutputStream.nullOutputStream());
+			if (p.waitFor() != 0)
+				throw new IOException("keytool failed with exit code " + p.exitValue());
+
+			KeyStore ks = KeyStore.getInstance("PKCS12");
+			try (InputStream in = Files.newInputStream(keyStore)) {
+				ks.load(in, password);
+			}
+			KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(ks, password);
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(kmf.getKeyManagers(), null, null);
+			return context;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("keytool interrupted", e);
+		}
+		finally {
+			Files.deleteIfExists(keyStore);
+		}
+	}
+
+	/*
+	 * Standalone server, options
+	 *   --bind <address>                     default all interfaces
+	 *   --port <port>                        default 5432
+	 *   --auth CLEARTEXT|MD5|SCRAM_SHA_256   default SCRAM_SHA_256
+	 *   --tls                                accept SSL with a self-signed certificate
+	 *   --database <name>                    in addition to postgres
+	 *   --role <name>:<password>[:createrole|:nologin]
+	 *   --latency <stage>:<millis>[:<jitter>]
+	 *   --fault <fault>:<probability>
+	 */
+	public static void main(String[] args) throws Exception {
+		InetAddress bind = null;
+		int port = 5432;
+		for (int i = 0; i + 1 < args.length; i++) {
+			if ("--bind".equals(args[i]))
+				bind = InetAddress.getByName(args[++i]);
+			else if ("--port".equals(args[i]))
+				port = Integer.parseInt(args[++i]);
+		}
+
+		final FakePostgreSQLServer server = new FakePostgreSQLServer(bind, port);
+		for (int i = 0; i < args.length; i++) {
+			final String value = i + 1 < args.length ? args[i + 1] : "";
+			final String[] parts = value.split(":");
+			switch (args[i]) {
+			case "--auth":
+				server.setAuthMethod(AuthMethod.valueOf(value));
+				i++;
+				break;
+			case "--tls":
+				server.setSSLContext(selfSignedContext());
+				break;
+			case "--database":
+				server.addDatabase(value);
+				i++;
+				break;
+			case "--role":
+				server.addRole(parts[0], parts.length > 1 ? parts[1] : "", !value.endsWith(":nologin"), value.endsWith(":createrole"));
+				i++;
+				break;
+			case "--latency":
+				server.setLatency(Stage.valueOf(parts[0]), Long.parseLong(parts[1]), parts.length > 2 ? Long.parseLong(parts[2]) : 0);
+				i++;
+				break;
+			case "--fault":
+				server.setFault(Fault.valueOf(parts[0]), Double.parseDouble(parts[1]));
+				i++;
+				break;
+			default:
+				break;
+			}
+		}
+		System.out.println("Fake PostgreSQL server listening on port " + server.getPort());
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+		Thread.currentThread().join();
+	}
+
+	private static boolean returnsRow(String query) {
+		return query.trim().toUpperCase(Locale.ROOT).startsWith("SELECT");
+	}
+
+	/*
+	 * Value of a SCRAM attribute, e.g. r= in "n=,r=abc"
+	 */
+	private static String attribute(String message, char name) {
+		for (String part : message.split(",")) {
+			if (part.length() > 1 && part.charAt(0) == name && part.charAt(1) == '=')
+				return part.substring(2);
+		}
+		return "";
+	}
+
+	/*
+	 * Content of a string literal, with doubled quotes and, for E'' strings,
+	 * backslash escapes resolved
+	 */
+	private static String unquote(String literal, boolean escapes) {
+		final String s = literal.replace("''", "'");
+		if (!escapes)
+			return s;
+		final StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				c = s.charAt(++i);
+				switch (c) {
+				case 'n': c = '\n'; break;
+				case 't': c = '\t'; break;
+				case 'r': c = '\r'; break;
+				case 'b': c = '\b'; break;
+				case 'f': c = '\f'; break;
+				default: break;
+				}
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	static String md5Password(String user, String password, byte[] salt) {
+		try {
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			final String inner = hex(md5.digest((password + user).getBytes(StandardCharsets.UTF_8)));
+			md5.update(inner.getBytes(StandardCharsets.US_ASCII));
+			md5.update(salt);
+			return "md5" + hex(md5.digest());
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Message body being written
+	 */
+	private static final class Msg {
+		private final ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+
+		Msg int8(int v) {
+			this.buf.write(v);
+			return this;
+		}
+
+		Msg int16(int v) {
+			this.buf.write(v >>> 8);
+			this.buf.write(v);
+			return this;
+		}
+
+		Msg int32(int v) {
+			this.int16(v >>> 16);
+			return this.int16(v);
+		}
+
+		Msg bytes(byte[] b) {
+			this.buf.write(b, 0, b.length);
+			return this;
+		}
+
+		Msg cstring(String s) {
+			return this.bytes(s.getBytes(StandardCharsets.UTF_8)).int8(0);
+		}
+
+		byte[] toByteArray() {
+			return this.buf.toByteArray();
+		}
+	}
+
+	/*
+	 * Message body being read
+	 */
+	private static final class Body {
+		private final byte[] data;
+		private int pos = 0;
+
+		Body(byte[] data) {
+			this.data = data;
+		}
+
+		int int8() {
+			return this.data[this.pos++] & 0xff;
+		}
+
+		int int32() {
+			int v = ((this.data[this.pos] & 0xff) << 24) | ((this.data[this.pos + 1] & 0xff) << 16)
+					| ((this.data[this.pos + 2] & 0xff) << 8) | (this.data[this.pos + 3] & 0xff);
+			this.pos += 4;
+			return v;
+		}
+
+		byte[] bytes(int n) {
+			byte[] b = new byte[Math.max(0, n)];
+			System.arraycopy(this.data, this.pos, b, 0, b.length);
+			this.pos += b.length;
+			return b;
+		}
+
+		int remaining() {
+			return this.data.length - this.pos;
+		}
+
+		String cstring() {
+			int end = this.pos;
+			while (end < this.data.length && this.data[end] != 0)
+				end++;
+			String s = new String(this.data, this.pos, end - this.pos, StandardCharsets.UTF_8);
+			this.pos = Math.min(end + 1, this.data.length);
+			return s;
+		}
+	}
+}
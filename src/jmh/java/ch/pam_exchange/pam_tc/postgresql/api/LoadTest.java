@@ -0,0 +1,180 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Sends credential requests to a deployed connector from concurrent clients
+ * and reports throughput and latency percentiles.
+ *
+ * Options
+ *   --url <url>                 e.g. http://tcf:8080/postgresql/credentials/validate
+ *   --requests <n>              requests measured, default 1000
+ *   --warmup <n>                requests sent before measuring, default 100
+ *   --concurrency <n>           clients sending at the same time, default 50
+ *   --timeout <millis>          per request, default 60000
+ *   --header <name>:<value>     added to each request, may be repeated
+ *   --body <file>               request body, otherwise built from account-request.json with
+ *   --set <name>=<value>        a template value, e.g. --set port=5432 --set userName=app_user
+ *
+ * Combined with FakePostgreSQLServer running standalone, a connector release
+ * is load tested without a database farm.
+ */
+public final class LoadTest {
+
+	private final HttpClient client;
+	private final URI uri;
+	private final String body;
+	private final List<String> headers;
+	private final Duration timeout;
+
+	private final Map<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+	private final LongAdder ioErrors = new LongAdder();
+
+	private LoadTest(URI uri, String body, List<String> headers, Duration timeout, int concurrency) {
+		this.uri = uri;
+		this.body = body;
+		this.headers = headers;
+		this.timeout = timeout;
+		this.client = HttpClient.newBuilder()
+				.connectTimeout(timeout)
+				.executor(Executors.newFixedThreadPool(Math.max(2, concurrency / 4)))
+				.build();
+	}
+
+	public static void main(String[] args) throws Exception {
+		String url = null;
+		String bodyFile = null;
+		int requests = 1000;
+		int warmup = 100;
+		int concurrency = 50;
+		long timeout = 60000;
+		final List<String> headers = new ArrayList<>();
+		final RequestTemplate template = RequestTemplate.load();
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			final String value = args[i + 1];
+			switch (args[i]) {
+			case "--url": url = value; break;
+			case "--requests": requests = Integer.parseInt(value); break;
+			case "--warmup": warmup = Integer.parseInt(value); break;
+			case "--concurrency": concurrency = Integer.parseInt(value); break;
+			case "--timeout": timeout = Long.parseLong(value); break;
+			case "--header": headers.add(value); break;
+			case "--body": bodyFile = value; break;
+			case "--set": {
+				int eq = value.indexOf('=');
+				template.with(value.substring(0, eq), value.substring(eq + 1));
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (url == null)
+			throw new IllegalArgumentException("--url is required");
+
+		final String body = bodyFile != null ? Files.readString(Paths.get(bodyFile), StandardCharsets.UTF_8) : template.build();
+		final LoadTest test = new LoadTest(URI.create(url), body, headers, Duration.ofMillis(timeout), concurrency);
+
+		if (warmup > 0) {
+			test.run(warmup, concurrency);
+			test.statusCounts.clear();
+			test.ioErrors.reset();
+		}
+		final long start = System.nanoTime();
+		final long[] latencies = test.run(requests, concurrency);
+		final long elapsed = System.nanoTime() - start;
+		test.report(latencies, elapsed, concurrency);
+		System.exit(0);
+	}
+
+	/*
+	 * Send the requests from concurrency threads, return the latency of
+	 * each request in nanoseconds
+	 */
+	private long[] run(int requests, int concurrency) throws InterruptedException {
+		final long[] latencies = new long[requests];
+		final AtomicInteger next = new AtomicInteger();
+		final Thread[] threads = new Thread[concurrency];
+		for (int t = 0; t < concurrency; t++) {
+			threads[t] = new Thread(() -> {
+				int i;
+				while ((i = next.getAndIncrement()) < requests) {
+					latencies[i] = this.send();
+				}
+			}, "load-" + t);
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return latencies;
+	}
+
+	private long send() {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(this.uri)
+				.timeout(this.timeout)
+				.header("Content-Type", "text/plain")
+				.POST(HttpRequest.BodyPublishers.ofString(this.body, StandardCharsets.UTF_8));
+		for (String header : this.headers) {
+			int colon = header.indexOf(':');
+			builder.header(header.substring(0, colon).trim(), header.substring(colon + 1).trim());
+		}
+		final HttpRequest request = builder.build();
+
+		final long start = System.nanoTime();
+		try {
+			HttpResponse<Void> response = this.client.send(request, HttpResponse.BodyHandlers.discarding());
+			this.statusCounts.computeIfAbsent(response.statusCode(), k -> new LongAdder()).increment();
+		}
+		catch (Exception e) {
+			this.ioErrors.increment();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private void report(long[] latencies, long elapsedNanos, int concurrency) {
+		Arrays.sort(latencies);
+		final double seconds = elapsedNanos / 1e9;
+		System.out.printf("requests     %d%n", latencies.length);
+		System.out.printf("concurrency  %d%n", concurrency);
+		System.out.printf("duration     %.3f s%n", seconds);
+		System.out.printf("throughput   %.1f req/s%n", latencies.length / seconds);
+		for (Map.Entry<Integer, LongAdder> e : new TreeMap<>(this.statusCounts).entrySet()) {
+			System.out.printf("status %d   %d%n", e.getKey(), e.getValue().sum());
+		}
+		if (this.ioErrors.sum() > 0)
+			System.out.printf("I/O errors   %d%n", this.ioErrors.sum());
+		System.out.printf("p50          %.2f ms%n", percentile(latencies, 0.50));
+		System.out.printf("p90          %.2f ms%n", percentile(latencies, 0.90));
+		System.out.printf("p99          %.2f ms%n", percentile(latencies, 0.99));
+		System.out.printf("p99.9        %.2f ms%n", percentile(latencies, 0.999));
+		System.out.printf("max          %.2f ms%n", latencies.length == 0 ? 0.0 : latencies[latencies.length - 1] / 1e6);
+	}
+
+	/*
+	 * Nearest-rank percentile of sorted latencies, in milliseconds
+	 */
+	static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0)
+			return 0.0;
+		int rank = (int) Math.ceil(p * sorted.length);
+		return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1] / 1e6;
+	}
+}
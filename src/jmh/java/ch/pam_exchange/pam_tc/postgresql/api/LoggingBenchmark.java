@@ -0,0 +1,86 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Cost of a log statement on the request thread, with the connector logger
+ * at INFO. With -prof gc the disabled FINE statements show the bytes
+ * allocated by building the message eagerly and none with a supplier. The
+ * INFO statement goes through AsyncLogHandler to a handler discarding the
+ * records, records not fitting into the queue are dropped as in production.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggingBenchmark {
+
+	private static final Logger LOGGER = Logger.getLogger(LoggingBenchmark.class.getName());
+
+	private Logger connectorLogger;
+	private String username;
+	private int port;
+
+	@Setup
+	public void setup() {
+		this.connectorLogger = Logger.getLogger(LoggingBenchmark.class.getPackage().getName());
+		this.connectorLogger.setLevel(Level.INFO);
+		this.connectorLogger.setUseParentHandlers(false);
+		this.connectorLogger.addHandler(new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		AsyncLogHandler.install();
+		this.username = "app_user";
+		this.port = 5432;
+	}
+
+	@TearDown
+	public void tearDown() {
+		AsyncLogHandler.uninstall();
+	}
+
+	@Benchmark
+	public void fineDisabledEager() {
+		LOGGER.fine(LoggerWrapper.logMessage("username= " + this.username + ", port= " + this.port));
+	}
+
+	@Benchmark
+	public void fineDisabledSupplier() {
+		LOGGER.fine(() -> LoggerWrapper.logMessage("username= " + this.username + ", port= " + this.port));
+	}
+
+	@Benchmark
+	public void infoAsync() {
+		LOGGER.info(() -> LoggerWrapper.logMessage("PostgreSQL DB user '" + this.username + "' password verified - OK"));
+	}
+}
@@ -0,0 +1,120 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ca.pam.extensions.core.ConnectorJSONUtil;
+import com.ca.pam.extensions.core.TargetAccount;
+
+import jakarta.ws.rs.core.Response;
+
+/*
+ * The steps of a credential request that run without a server: parsing,
+ * configuration, connection properties, error classification and the
+ * account validation. Run with -prof gc for the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestPathBenchmark {
+
+	/*
+	 * Strong reference, the connector logging is off during the benchmarks
+	 */
+	private static final Logger CONNECTOR_LOGGER = Logger.getLogger("ch.pam_exchange.pam_tc.postgresql.api");
+
+	private String json;
+	private byte[] body;
+	private TargetAccount targetAccount;
+	private PostgreSQL postgresql;
+	private Validations validations;
+	private Exception[] exceptions;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		CONNECTOR_LOGGER.setLevel(Level.OFF);
+
+		this.json = RequestTemplate.load()
+				.with("userName", "app_user")
+				.with("password", "New-Passw0rd!")
+				.with("oldPassword", "Old-Passw0rd!")
+				.build();
+		this.body = this.json.getBytes(StandardCharsets.UTF_8);
+		AccountRequestCheck.run(this.json);
+		this.targetAccount = ConnectorJSONUtil.getTargetAccountFromJSON(this.json);
+		this.postgresql = new PostgreSQL(this.targetAccount);
+		this.validations = new Validations();
+
+		/*
+		 * One exception per message of the classification
+		 */
+		this.exceptions = new Exception[] {
+			new SQLException("FATAL: password authentication failed for user \"app_user\"", "28P01"),
+			new SQLException("ERROR: role \"app_user\" does not exist", "42704"),
+			new SQLException("Connection to 127.0.0.1:5432 refused. Check that the hostname and port are correct and that the postmaster is accepting TCP/IP connections.", "08001"),
+			new SQLException("FATAL: role \"app_user\" is not permitted to log in", "28000"),
+			new SQLException("The server does not support SSL.", "08004"),
+			new IllegalStateException("unexpected")
+		};
+	}
+
+	/*
+	 * Request parsing before and after the streaming parser, compare the
+	 * allocation rate with -prof gc
+	 */
+	@Benchmark
+	public TargetAccount parseRequest() throws Exception {
+		return ConnectorJSONUtil.getTargetAccountFromJSON(this.json);
+	}
+
+	@Benchmark
+	public AccountRequest parseRequestStreaming() throws Exception {
+		return AccountRequest.parse(this.body);
+	}
+
+	@Benchmark
+	public PostgreSQL readConfiguration() {
+		return new PostgreSQL(this.targetAccount);
+	}
+
+	@Benchmark
+	public Properties buildConnectionProperties() {
+		return this.postgresql.buildConnectionProperties("app_user", "Old-Passw0rd!");
+	}
+
+	@Benchmark
+	public PostgreSQL.Failure classifyException() {
+		final Exception e = this.exceptions[this.next];
+		this.next = (this.next + 1) % this.exceptions.length;
+		return this.postgresql.classifyException(e, "app_user");
+	}
+
+	@Benchmark
+	public Response validateAccount() throws Exception {
+		return this.validations.validateCreateData("account", this.json);
+	}
+
+	@Benchmark
+	public Response validateAccountUpdate() throws Exception {
+		return this.validations.validateUpdateData("account", this.json);
+	}
+}
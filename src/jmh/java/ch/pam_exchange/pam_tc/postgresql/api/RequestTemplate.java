@@ -0,0 +1,68 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Account request bodies for the benchmarks and the load test.
+ *
+ * The body is read from the resource account-request.json, or from the file
+ * given with -Dpostgresql.bench.request=<file>, e.g. a request captured from
+ * PAM with the passwords replaced by placeholders. ${name} placeholders are
+ * replaced by the values set with with().
+ */
+public final class RequestTemplate {
+
+	private static final String RESOURCE = "/account-request.json";
+
+	private final String template;
+	private final Map<String, String> values = new HashMap<>();
+
+	private RequestTemplate(String template) {
+		this.template = template;
+		this.values.put("hostName", "127.0.0.1");
+		this.values.put("port", "5432");
+		this.values.put("database", "postgres");
+		this.values.put("useTLS", "false");
+		this.values.put("userName", "");
+		this.values.put("password", "");
+		this.values.put("oldPassword", "");
+		this.values.put("changeProcess", "own");
+		this.values.put("masterUserName", "");
+		this.values.put("masterPassword", "");
+	}
+
+	public static RequestTemplate load() throws IOException {
+		final String file = System.getProperty("postgresql.bench.request");
+		if (file != null) {
+			return new RequestTemplate(Files.readString(Paths.get(file), StandardCharsets.UTF_8));
+		}
+		try (InputStream in = RequestTemplate.class.getResourceAsStream(RESOURCE)) {
+			if (in == null)
+				throw new IOException("Resource " + RESOURCE + " not found");
+			return new RequestTemplate(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	public RequestTemplate with(String name, String value) {
+		this.values.put(name, value);
+		return this;
+	}
+
+	public String build() {
+		String json = this.template;
+		for (Map.Entry<String, String> e : this.values.entrySet()) {
+			json = json.replace("${" + e.getKey() + "}", escape(e.getValue()));
+		}
+		return json;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
@@ -0,0 +1,46 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+/*
+ * Check of the SCRAM-SHA-256 key derivation against the example exchange
+ * of RFC 7677 section 3 (user "user", password "pencil"). Run by the SCRAM
+ * benchmarks before measuring, or on its own with
+ *   -Djmh.main=ch.pam_exchange.pam_tc.postgresql.api.Rfc7677Check
+ */
+public final class Rfc7677Check {
+
+	private static final String PASSWORD = "pencil";
+	private static final String CLIENT_FIRST_BARE = "n=user,r=rOprNGfwEbeRWgbNEkqO";
+	private static final String SERVER_FIRST = "r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0,s=W22ZaJ0SNY7soEsUEjb6gQ==,i=4096";
+	private static final String CLIENT_FINAL_WITHOUT_PROOF = "c=biws,r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0";
+	private static final String SALT = "W22ZaJ0SNY7soEsUEjb6gQ==";
+	private static final int ITERATIONS = 4096;
+
+	private static final String CLIENT_PROOF = "dHzbZapWIk4jUhN+Ute9ytag9zjfMHgsqmmiz7AndVQ=";
+	private static final String SERVER_SIGNATURE = "6rriTRBi23WpRR/wtup+mMhUZUn/dB5nLTJRsjl95G4=";
+
+	private Rfc7677Check() {
+	}
+
+	/**
+	 * @throws IllegalStateException if the proof or server signature differ
+	 */
+	public static void run() throws GeneralSecurityException {
+		final byte[] authMessage = (CLIENT_FIRST_BARE + "," + SERVER_FIRST + "," + CLIENT_FINAL_WITHOUT_PROOF).getBytes(StandardCharsets.UTF_8);
+		final Scram.Keys keys = Scram.deriveKeys(PASSWORD, Base64.getDecoder().decode(SALT), ITERATIONS);
+		final String proof = Base64.getEncoder().encodeToString(Scram.xor(keys.clientKey, Scram.hmac(keys.storedKey, authMessage)));
+		final String signature = Base64.getEncoder().encodeToString(Scram.hmac(keys.serverKey, authMessage));
+		if (!CLIENT_PROOF.equals(proof))
+			throw new IllegalStateException("RFC 7677 client proof " + proof + ", expected " + CLIENT_PROOF);
+		if (!SERVER_SIGNATURE.equals(signature))
+			throw new IllegalStateException("RFC 7677 server signature " + signature + ", expected " + SERVER_SIGNATURE);
+	}
+
+	public static void main(String[] args) throws Exception {
+		run();
+		System.out.println("RFC 7677 test vector OK");
+	}
+}
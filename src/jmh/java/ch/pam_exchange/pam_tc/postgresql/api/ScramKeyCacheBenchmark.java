@@ -0,0 +1,55 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * CPU saved by the SCRAM key cache of the probe. cold derives the client
+ * and server keys as on a cache miss, cached takes them from
+ * ScramKeyCache for the same password, salt and iteration count, as a
+ * repeated verify of the same credentials does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScramKeyCacheBenchmark {
+
+	private static final String PASSWORD = "Passw0rd!";
+	private static final byte[] SALT = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	@Param({ "4096", "10000" })
+	public int iterations;
+
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		Rfc7677Check.run();
+		ScramKeyCache.getInstance().clear();
+		ScramKeyCache.getInstance().deriveKeys(PASSWORD, SALT, this.iterations);
+	}
+
+	@Benchmark
+	public Scram.Keys cold() throws GeneralSecurityException {
+		return Scram.deriveKeys(PASSWORD, SALT, this.iterations);
+	}
+
+	@Benchmark
+	public Scram.Keys cached() throws GeneralSecurityException {
+		return ScramKeyCache.getInstance().deriveKeys(PASSWORD, SALT, this.iterations);
+	}
+}
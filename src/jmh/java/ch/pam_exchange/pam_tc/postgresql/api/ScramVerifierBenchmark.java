@@ -0,0 +1,46 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * SCRAM-SHA-256 verifiers generated per second, the connector side cost of
+ * postgresql.password.encryption=scram-sha-256. The allCores variant shows
+ * the throughput of a batch computing its verifiers in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScramVerifierBenchmark {
+
+	private static final String PASSWORD = "New-Passw0rd!";
+
+	@Param({ "4096", "10000" })
+	public int iterations;
+
+	@Benchmark
+	public String verifier() throws GeneralSecurityException {
+		return Scram.verifier(PASSWORD, this.iterations);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public String verifierAllCores() throws GeneralSecurityException {
+		return Scram.verifier(PASSWORD, this.iterations);
+	}
+}
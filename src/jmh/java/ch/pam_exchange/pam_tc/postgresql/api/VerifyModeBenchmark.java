@@ -0,0 +1,87 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Latency of one verify login with postgresql.verify.mode jdbc (a JDBC
+ * connection opened and closed) and probe (AuthProbe), against the
+ * in-process FakePostgreSQLServer. With -prof gc the bytes allocated per
+ * login. The SCRAM key cache is cleared before each probe, thus both
+ * modes derive the keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerifyModeBenchmark {
+
+	private static final Logger CONNECTOR_LOGGER = Logger.getLogger("ch.pam_exchange.pam_tc.postgresql.api");
+
+	private static final String USERNAME = "app_user";
+	private static final String PASSWORD = "Passw0rd!";
+	private static final long TIMEOUT = 5000;
+
+	@Param({ "SCRAM_SHA_256", "MD5" })
+	public String authMethod;
+
+	private FakePostgreSQLServer server;
+	private String url;
+	private Properties props;
+
+	@Setup
+	public void setup() throws Exception {
+		CONNECTOR_LOGGER.setLevel(Level.OFF);
+		Rfc7677Check.run();
+
+		this.server = new FakePostgreSQLServer()
+				.setAuthMethod(FakePostgreSQLServer.AuthMethod.valueOf(this.authMethod))
+				.addRole(USERNAME, PASSWORD, true, false);
+		this.url = "jdbc:postgresql://localhost:" + this.server.getPort() + "/postgres";
+		this.props = new Properties();
+		this.props.setProperty("user", USERNAME);
+		this.props.setProperty("password", PASSWORD);
+		this.props.setProperty("ssl", "false");
+		this.props.setProperty("connectTimeout", "5");
+		this.props.setProperty("loginTimeout", "5");
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.server.close();
+	}
+
+	@Benchmark
+	public boolean jdbc() throws Exception {
+		try (Connection conn = DriverManager.getConnection(this.url, this.props)) {
+			return conn.isClosed();
+		}
+	}
+
+	@Benchmark
+	public AuthProbe probe() throws Exception {
+		ScramKeyCache.getInstance().clear();
+		final AuthProbe probe = new AuthProbe("localhost", this.server.getPort(), "postgres", false, TIMEOUT, TIMEOUT);
+		probe.authenticate(USERNAME, PASSWORD);
+		return probe;
+	}
+}
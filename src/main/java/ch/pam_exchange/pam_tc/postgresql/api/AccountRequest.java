@@ -0,0 +1,328 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.ConnectorJSONUtil;
+import com.ca.pam.extensions.core.MasterAccount;
+import com.ca.pam.extensions.core.TargetAccount;
+import com.ca.pam.extensions.core.TargetApplication;
+import com.ca.pam.extensions.core.TargetServer;
+import com.ca.pam.extensions.core.api.exception.ExtensionException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/*
+ * The fields of a credential request used by the connector.
+ *
+ * The request body is read with a size limit and parsed with the Jackson
+ * streaming parser, only the fields below are kept, everything else is
+ * skipped without building a string or tree for it.
+ *
+ *   userName, oldUserName, password, oldPassword
+ *   extendedAttributes.changeProcess
+ *   extendedAttributes.otherAccount            master account, same layout
+ *   targetApplication.name
+ *   targetApplication.extendedAttributes       port, connectionTimeout, loginTimeout, database, useTLS, standbyHosts
+ *   targetApplication.targetServer             hostName, deviceName
+ *
+ * A request missing a field the connector needs, the userName, the
+ * targetServer hostName or, with changeProcess other, the userName, password
+ * or targetApplication of the master account, is parsed again with
+ * ConnectorJSONUtil, thus a layout not known here is handled as before.
+ * The jmh check AccountRequestCheck compares both parsers on a request body.
+ */
+final class AccountRequest {
+
+	static final int MAX_BODY_SIZE = ExtensionProperties.getInt("postgresql.request.maxBodySize", 65536);
+	static final int MAX_BATCH_BODY_SIZE = ExtensionProperties.getInt("postgresql.request.maxBatchBodySize", 16777216);
+
+	private static final JsonFactory FACTORY = new JsonFactory();
+
+	private static final String FIELD_CHANGEPROCESS = "changeProcess";
+	private static final String FIELD_MASTERACCOUNT = "otherAccount";
+	private static final String CHANGE_OTHER = "other";
+
+	final String userName;
+	final String oldUserName;
+	final String password;
+	final String oldPassword;
+	final String changeProcess;
+	final AccountRequest master;
+	final Application application;
+
+	private AccountRequest(String userName, String oldUserName, String password, String oldPassword,
+			String changeProcess, AccountRequest master, Application application) {
+		this.userName = userName;
+		this.oldUserName = oldUserName;
+		this.password = password;
+		this.oldPassword = oldPassword;
+		this.changeProcess = changeProcess;
+		this.master = master;
+		this.application = application;
+	}
+
+	/*
+	 * Target application and server. Strings are empty when missing, the
+	 * extended attributes null.
+	 */
+	static final class Application {
+		final String name;
+		final String hostName;
+		final String deviceName;
+		final String port;
+		final String connectionTimeout;
+		final String loginTimeout;
+		final String database;
+		final String useTLS;
+		final String standbyHosts;
+
+		Application(String name, String hostName, String deviceName, String port, String connectionTimeout,
+				String loginTimeout, String database, String useTLS, String standbyHosts) {
+			this.name = name;
+			this.hostName = hostName;
+			this.deviceName = deviceName;
+			this.port = port;
+			this.connectionTimeout = connectionTimeout;
+			this.loginTimeout = loginTimeout;
+			this.database = database;
+			this.useTLS = useTLS;
+			this.standbyHosts = standbyHosts;
+		}
+	}
+
+	/**
+	 * Read a request body, at most maxSize bytes
+	 *
+	 * @throws ExtensionException if the body is larger
+	 */
+	static byte[] readBody(InputStream in, int maxSize) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxSize, 8192));
+		final byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			if (out.size() + n > maxSize)
+				throw new ExtensionException(PostgreSQLMessageConstants.ERR_REQUEST_TOO_LARGE, false, Integer.toString(maxSize));
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Parse one request
+	 */
+	static AccountRequest parse(byte[] body) throws Exception {
+		return parse(body, 0, body.length);
+	}
+
+	static AccountRequest parse(byte[] body, int offset, int length) throws Exception {
+		AccountRequest request;
+		try (JsonParser parser = FACTORY.createParser(body, offset, length)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				throw new IOException("Request is not a JSON object");
+			request = readAccount(parser);
+		}
+		if (!request.isComplete()) {
+			request = of(ConnectorJSONUtil.getTargetAccountFromJSON(new String(body, offset, length, StandardCharsets.UTF_8)));
+		}
+		return request;
+	}
+
+	/*
+	 * All fields used by the connector found by the streaming parser
+	 */
+	private boolean isComplete() {
+		if (this.userName.isEmpty() || this.application == null || this.application.hostName.isEmpty())
+			return false;
+		if (!CHANGE_OTHER.equals(this.changeProcess))
+			return true;
+		return this.master != null && !this.master.userName.isEmpty() && !this.master.password.isEmpty()
+				&& this.master.application != null;
+	}
+
+	/**
+	 * Parse a JSON array of requests. An element failing to parse is
+	 * returned as the exception.
+	 */
+	static List<Object> parseBatch(byte[] body) throws IOException {
+		final List<Object> result = new ArrayList<>();
+		try (JsonParser parser = FACTORY.createParser(body)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY)
+				throw new IOException("Request is not a JSON array");
+			JsonToken token;
+			while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+				if (token == null)
+					throw new IOException("Unexpected end of request");
+				final int start = (int) parser.getTokenLocation().getByteOffset();
+				parser.skipChildren();
+				final int end = (int) parser.getCurrentLocation().getByteOffset();
+				try {
+					result.add(parse(body, start, end - start));
+				}
+				catch (Exception e) {
+					result.add(e);
+				}
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Fields of an account object, the parser is at its START_OBJECT
+	 */
+	private static AccountRequest readAccount(JsonParser parser) throws IOException {
+		String userName = "";
+		String oldUserName = "";
+		String password = "";
+		String oldPassword = "";
+		String changeProcess = null;
+		AccountRequest master = null;
+		Application application = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken value = parser.nextToken();
+			switch (field) {
+			case "userName":
+				userName = text(parser, value, "");
+				break;
+			case "oldUserName":
+				oldUserName = text(parser, value, "");
+				break;
+			case "password":
+				password = text(parser, value, "");
+				break;
+			case "oldPassword":
+				oldPassword = text(parser, value, "");
+				break;
+			case "extendedAttributes":
+				if (value != JsonToken.START_OBJECT) {
+					parser.skipChildren();
+					break;
+				}
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					final String attribute = parser.getCurrentName();
+					final JsonToken attributeValue = parser.nextToken();
+					if (FIELD_CHANGEPROCESS.equals(attribute))
+						changeProcess = text(parser, attributeValue, null);
+					else if (FIELD_MASTERACCOUNT.equals(attribute) && attributeValue == JsonToken.START_OBJECT)
+						master = readAccount(parser);
+					else
+						parser.skipChildren();
+				}
+				break;
+			case "targetApplication":
+				if (value == JsonToken.START_OBJECT)
+					application = readApplication(parser);
+				else
+					parser.skipChildren();
+				break;
+			default:
+				parser.skipChildren();
+				break;
+			}
+		}
+		return new AccountRequest(userName, oldUserName, password, oldPassword, changeProcess, master, application);
+	}
+
+	private static Application readApplication(JsonParser parser) throws IOException {
+		String name = "";
+		String hostName = "";
+		String deviceName = "";
+		String port = null;
+		String connectionTimeout = null;
+		String loginTimeout = null;
+		String database = null;
+		String useTLS = null;
+		String standbyHosts = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken value = parser.nextToken();
+			if ("name".equals(field)) {
+				name = text(parser, value, "");
+			}
+			else if ("extendedAttributes".equals(field) && value == JsonToken.START_OBJECT) {
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					final String attribute = parser.getCurrentName();
+					final JsonToken attributeValue = parser.nextToken();
+					switch (attribute) {
+					case "port": port = text(parser, attributeValue, null); break;
+					case "connectionTimeout": connectionTimeout = text(parser, attributeValue, null); break;
+					case "loginTimeout": loginTimeout = text(parser, attributeValue, null); break;
+					case "database": database = text(parser, attributeValue, null); break;
+					case "useTLS": useTLS = text(parser, attributeValue, null); break;
+					case "standbyHosts": standbyHosts = text(parser, attributeValue, null); break;
+					default: parser.skipChildren(); break;
+					}
+				}
+			}
+			else if ("targetServer".equals(field) && value == JsonToken.START_OBJECT) {
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					final String attribute = parser.getCurrentName();
+					final JsonToken attributeValue = parser.nextToken();
+					if ("hostName".equals(attribute))
+						hostName = text(parser, attributeValue, "");
+					else if ("deviceName".equals(attribute))
+						deviceName = text(parser, attributeValue, "");
+					else
+						parser.skipChildren();
+				}
+			}
+			else {
+				parser.skipChildren();
+			}
+		}
+		return new Application(name, hostName, deviceName, port, connectionTimeout, loginTimeout, database, useTLS, standbyHosts);
+	}
+
+	/*
+	 * Scalar as text, objects and arrays are skipped
+	 */
+	private static String text(JsonParser parser, JsonToken token, String missing) throws IOException {
+		if (token == JsonToken.VALUE_NULL)
+			return missing;
+		if (token.isScalarValue())
+			return parser.getText();
+		parser.skipChildren();
+		return missing;
+	}
+
+	/**
+	 * The fields of an account parsed by ConnectorJSONUtil
+	 */
+	static AccountRequest of(TargetAccount account) {
+		if (account == null)
+			return null;
+		final String changeProcess = account.getExtendedAttribute(FIELD_CHANGEPROCESS);
+		AccountRequest master = null;
+		if (CHANGE_OTHER.equals(changeProcess)) {
+			final MasterAccount masterAccount = account.getMasterAccount(FIELD_MASTERACCOUNT);
+			if (masterAccount != null)
+				master = of(masterAccount.getAsTargetAccount());
+		}
+		return new AccountRequest(account.getUserName(), account.getOldUserName(), account.getPassword(), account.getOldPassword(),
+				changeProcess, master, of(account.getTargetApplication()));
+	}
+
+	private static Application of(TargetApplication application) {
+		if (application == null)
+			return null;
+		final TargetServer server = application.getTargetServer();
+		return new Application(application.getName(),
+				server == null ? "" : server.getHostName(),
+				server == null ? "" : server.getDeviceName(),
+				application.getExtendedAttribute("port"),
+				application.getExtendedAttribute("connectionTimeout"),
+				application.getExtendedAttribute("loginTimeout"),
+				application.getExtendedAttribute("database"),
+				application.getExtendedAttribute("useTLS"),
+				application.getExtendedAttribute("standbyHosts"));
+	}
+}
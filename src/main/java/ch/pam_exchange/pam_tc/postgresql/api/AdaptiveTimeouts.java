@@ -0,0 +1,177 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Connect and login timeouts per host:port derived from the observed
+ * latency.
+ *
+ * For each host the TCP connect and the login (TLS handshake,
+ * authentication and session setup) are estimated by an EWMA of the
+ * latency and of its deviation (as TCP estimates the round trip time) and
+ * by the p99 of the last samples. Once postgresql.timeout.minSamples
+ * successful attempts are seen, the timeout is
+ *
+ *   max(p99 * factor, ewma + 4 * deviation, min)
+ *
+ * in milliseconds, at most the connectionTimeout or loginTimeout of the
+ * application. Before that, or with postgresql.timeout.adaptive false, the
+ * configured timeouts are used.
+ *
+ * An attempt failing after at least the applied timeout is recorded with
+ * its duration, thus a host becoming slower raises its timeout up to the
+ * configured one instead of failing again and again.
+ */
+final class AdaptiveTimeouts implements AdaptiveTimeoutsMXBean {
+
+	static final String OBJECT_NAME = "ch.pam_exchange.pam_tc.postgresql:type=AdaptiveTimeouts";
+
+	private static final boolean ENABLED = ExtensionProperties.getBoolean("postgresql.timeout.adaptive", true);
+	private static final double FACTOR = ExtensionProperties.getDouble("postgresql.timeout.factor", 3.0);
+	private static final long MIN_TIMEOUT = ExtensionProperties.getLong("postgresql.timeout.min", 250);
+	private static final int MIN_SAMPLES = Math.max(1, ExtensionProperties.getInt("postgresql.timeout.minSamples", 20));
+
+	private static final int WINDOW = 128;
+	private static final double ALPHA = 0.125;
+	private static final double BETA = 0.25;
+
+	private static final AdaptiveTimeouts INSTANCE = new AdaptiveTimeouts();
+
+	static AdaptiveTimeouts getInstance() {
+		return INSTANCE;
+	}
+
+	private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+	private final LongAdder applied = new LongAdder();
+
+	private AdaptiveTimeouts() {
+	}
+
+	/*
+	 * Estimates of a host, created on first use
+	 */
+	Host get(String hostKey) {
+		return this.hosts.computeIfAbsent(hostKey, k -> new Host());
+	}
+
+	void clear() {
+		this.hosts.clear();
+	}
+
+	/*
+	 * Estimates of the connect and the login of a host
+	 */
+	final class Host {
+		final Estimator connect = new Estimator();
+		final Estimator login = new Estimator();
+
+		private Host() {
+		}
+
+		/**
+		 * Connect timeout to apply, milliseconds
+		 *
+		 * @param configured connectionTimeout of the application
+		 */
+		long connectTimeout(long configured) {
+			return timeout(this.connect, configured);
+		}
+
+		/**
+		 * Login timeout to apply, milliseconds
+		 *
+		 * @param configured loginTimeout of the application
+		 */
+		long loginTimeout(long configured) {
+			return timeout(this.login, configured);
+		}
+	}
+
+	private long timeout(Estimator estimator, long configured) {
+		if (!ENABLED)
+			return configured;
+		final long estimate = estimator.timeoutMillis();
+		if (estimate < 0 || estimate >= configured)
+			return configured;
+		this.applied.increment();
+		return estimate;
+	}
+
+	/*
+	 * EWMA, deviation and p99 of the latency of one phase
+	 */
+	static final class Estimator {
+		private final long[] window = new long[WINDOW];
+		private long samples = 0;
+		private double ewma = 0;
+		private double deviation = 0;
+		private long p99 = -1;
+		private boolean dirty = false;
+
+		/*
+		 * An attempt took nanos, or timed out after nanos
+		 */
+		synchronized void record(long nanos) {
+			if (nanos < 0)
+				return;
+			if (this.samples == 0) {
+				this.ewma = nanos;
+				this.deviation = nanos / 2.0;
+			}
+			else {
+				this.deviation = (1 - BETA) * this.deviation + BETA * Math.abs(nanos - this.ewma);
+				this.ewma = (1 - ALPHA) * this.ewma + ALPHA * nanos;
+			}
+			this.window[(int) (this.samples % WINDOW)] = nanos;
+			this.samples++;
+			this.dirty = true;
+		}
+
+		/*
+		 * Timeout from the estimates in milliseconds, -1 if there are too
+		 * few samples
+		 */
+		synchronized long timeoutMillis() {
+			if (this.samples < MIN_SAMPLES)
+				return -1;
+			if (this.dirty) {
+				final int n = (int) Math.min(this.samples, WINDOW);
+				final long[] sorted = Arrays.copyOf(this.window, n);
+				Arrays.sort(sorted);
+				this.p99 = sorted[(int) Math.ceil(0.99 * n) - 1];
+				this.dirty = false;
+			}
+			final double nanos = Math.max(this.p99 * FACTOR, this.ewma + 4 * this.deviation);
+			return Math.max(MIN_TIMEOUT, (long) Math.ceil(nanos / 1e6));
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("ewma %.1f ms, deviation %.1f ms, p99 %.1f ms, %d samples",
+					this.ewma / 1e6, this.deviation / 1e6, this.p99 / 1e6, this.samples);
+		}
+	}
+
+	/*
+	 * MXBean attributes
+	 */
+	@Override
+	public Map<String, String> getTimeouts() {
+		final Map<String, String> timeouts = new TreeMap<>();
+		for (Map.Entry<String, Host> e : this.hosts.entrySet()) {
+			final Host host = e.getValue();
+			timeouts.put(e.getKey(), "connect " + host.connect.timeoutMillis() + " ms (" + host.connect + "), login "
+					+ host.login.timeoutMillis() + " ms (" + host.login + ")");
+		}
+		return timeouts;
+	}
+
+	@Override
+	public long getTimeoutsApplied() {
+		return this.applied.sum();
+	}
+}
@@ -0,0 +1,16 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.Map;
+
+/*
+ * Latency estimates and timeouts per host, published with JMX
+ */
+public interface AdaptiveTimeoutsMXBean {
+
+	/*
+	 * Timeouts per host:port, with the latency estimates they are derived from
+	 */
+	Map<String, String> getTimeouts();
+
+	long getTimeoutsApplied();
+}
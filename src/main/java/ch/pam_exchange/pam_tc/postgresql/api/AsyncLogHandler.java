@@ -0,0 +1,167 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/*
+ * Asynchronous logging of the connector.
+ *
+ * When the connector is deployed, the handlers of the connector logger
+ * (ch.pam_exchange.pam_tc.postgresql.api in the Tomcat logging.properties)
+ * and of its parents are replaced by this handler. A request thread only
+ * puts the record into a bounded queue, one thread writes the records to
+ * the original handlers. When the queue is full the record is dropped and
+ * counted, a request never waits for the log.
+ *
+ * postgresql.log.async       false to log on the request thread as before
+ * postgresql.log.queueSize   records waiting to be written
+ */
+final class AsyncLogHandler extends Handler {
+
+	private static final boolean ENABLED = ExtensionProperties.getBoolean("postgresql.log.async", true);
+	private static final int QUEUE_SIZE = Math.max(16, ExtensionProperties.getInt("postgresql.log.queueSize", 8192));
+
+	private static final long SHUTDOWN_TIMEOUT = 2000;
+
+	private static AsyncLogHandler installed = null;
+
+	private static final LongAdder DROPPED = new LongAdder();
+
+	private final Logger logger;
+	private final Handler[] ownHandlers;
+	private final Handler[] handlers;
+	private final boolean useParentHandlers;
+	private final BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private final Thread writer;
+	private volatile boolean closed = false;
+
+	private AsyncLogHandler(Logger logger, Handler[] handlers) {
+		this.logger = logger;
+		this.ownHandlers = logger.getHandlers();
+		this.handlers = handlers;
+		this.useParentHandlers = logger.getUseParentHandlers();
+		this.writer = new Thread(this::write, "postgresql-log");
+		this.writer.setDaemon(true);
+	}
+
+	/*
+	 * Replace the handlers of the connector logger. Called when the
+	 * connector is deployed.
+	 */
+	static synchronized void install() {
+		if (!ENABLED || installed != null)
+			return;
+
+		final Logger logger = Logger.getLogger(AsyncLogHandler.class.getPackage().getName());
+		final List<Handler> handlers = new ArrayList<>();
+		for (Logger l = logger; l != null; l = l.getParent()) {
+			for (Handler h : l.getHandlers()) {
+				handlers.add(h);
+			}
+			if (!l.getUseParentHandlers())
+				break;
+		}
+		if (handlers.isEmpty())
+			return;
+
+		final AsyncLogHandler handler = new AsyncLogHandler(logger, handlers.toArray(new Handler[0]));
+		for (Handler h : handler.ownHandlers) {
+			logger.removeHandler(h);
+		}
+		logger.setUseParentHandlers(false);
+		logger.addHandler(handler);
+		handler.writer.start();
+		installed = handler;
+	}
+
+	/*
+	 * Write the queued records and restore the handlers. Called when the
+	 * connector is undeployed.
+	 */
+	static synchronized void uninstall() {
+		if (installed == null)
+			return;
+		final AsyncLogHandler handler = installed;
+		installed = null;
+
+		handler.logger.removeHandler(handler);
+		handler.close();
+		for (Handler h : handler.ownHandlers) {
+			handler.logger.addHandler(h);
+		}
+		handler.logger.setUseParentHandlers(handler.useParentHandlers);
+		if (DROPPED.sum() > 0)
+			handler.logger.warning(LoggerWrapper.logMessage("Log records dropped, queue full: " + DROPPED.sum()));
+	}
+
+	/*
+	 * Records dropped because the queue was full
+	 */
+	static long getDropped() {
+		return DROPPED.sum();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (this.closed || !this.isLoggable(record))
+			return;
+		/* caller of the logger, found on the request thread */
+		record.getSourceClassName();
+		if (!this.queue.offer(record))
+			DROPPED.increment();
+	}
+
+	private void write() {
+		final List<LogRecord> records = new ArrayList<>();
+		while (!this.closed || !this.queue.isEmpty()) {
+			try {
+				final LogRecord record = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if (record == null)
+					continue;
+				records.add(record);
+				this.queue.drainTo(records);
+				for (LogRecord r : records) {
+					for (Handler h : this.handlers) {
+						h.publish(r);
+					}
+				}
+				records.clear();
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+			catch (RuntimeException e) {
+				this.reportError("Cannot write log record", e, 0);
+				records.clear();
+			}
+		}
+	}
+
+	@Override
+	public void flush() {
+		for (Handler h : this.handlers) {
+			h.flush();
+		}
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		try {
+			this.writer.join(SHUTDOWN_TIMEOUT);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.flush();
+	}
+}
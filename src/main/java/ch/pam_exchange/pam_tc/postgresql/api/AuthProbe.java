@@ -0,0 +1,475 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Base64;
+
+import javax.net.ssl.SSLSocket;
+
+/*
+ * Login check using the PostgreSQL frontend/backend protocol directly.
+ *
+ * Sends SSLRequest (if TLS is used) and StartupMessage, answers a cleartext,
+ * MD5 or SCRAM-SHA-256 authentication request and reads the backend messages
+ * until ReadyForQuery or ErrorResponse, then sends Terminate. No session is
+ * set up on the client side.
+ *
+ * The messages after AuthenticationOk are read because checks like "database
+ * does not exist" and "is not permitted to log in" are done by the server
+ * after the authentication exchange.
+ *
+ * Errors are thrown as SQLException with the same messages and SQL states as
+ * the PostgreSQL JDBC driver, thus the exceptions are classified the same way.
+ */
+final class AuthProbe {
+
+	private static final int PROTOCOL_VERSION_3 = 196608;
+	private static final int SSL_REQUEST_CODE = 80877103;
+
+	private static final int AUTH_OK = 0;
+	private static final int AUTH_CLEARTEXT = 3;
+	private static final int AUTH_MD5 = 5;
+	private static final int AUTH_SASL = 10;
+	private static final int AUTH_SASL_CONTINUE = 11;
+	private static final int AUTH_SASL_FINAL = 12;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final String hostname;
+	private final int port;
+	private final String database;
+	private final boolean useTLS;
+	private final int connectTimeout;
+	private final int loginTimeout;
+
+	/*
+	 * Phase timings, -1 if the phase was not completed
+	 */
+	private long connectNanos = -1;
+	private long tlsNanos = -1;
+	private long authNanos = -1;
+	private String phase = null;
+	private long phaseStart = 0;
+	private long failedNanos = -1;
+
+	/*
+	 * TLS handshake JFR event, committed by the caller
+	 */
+	private ConnectorEvents.TlsHandshake tlsEvent = null;
+
+	AuthProbe(String hostname, int port, String database, boolean useTLS, long connectTimeout, long loginTimeout) {
+		this.hostname = hostname;
+		this.port = port;
+		this.database = database;
+		this.useTLS = useTLS;
+		this.connectTimeout = (int) Math.max(1, connectTimeout);
+		this.loginTimeout = (int) Math.max(1, loginTimeout);
+	}
+
+	/**
+	 * Login with username and password and disconnect.
+	 *
+	 * @throws SQLException if the login fails
+	 */
+	void authenticate(String username, String password) throws SQLException {
+		Socket socket = new Socket();
+		try {
+			this.startPhase(PhaseMetrics.PHASE_CONNECT);
+			try {
+				socket.connect(new InetSocketAddress(this.hostname, this.port), this.connectTimeout);
+				this.connectNanos = this.endPhase();
+			}
+			catch (IOException e) {
+				throw new SQLException("Connection to " + this.hostname + ":" + this.port
+						+ " refused. Check that the hostname and port are correct and that the postmaster is accepting TCP/IP connections.", "08001", e);
+			}
+			socket.setSoTimeout(this.loginTimeout);
+			socket.setTcpNoDelay(true);
+
+			if (this.useTLS) {
+				this.startPhase(PhaseMetrics.PHASE_TLS);
+				socket = this.startTLS(socket);
+				this.tlsNanos = this.endPhase();
+			}
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 8192));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 512));
+
+			this.startPhase(PhaseMetrics.PHASE_AUTH);
+			this.sendStartup(out, username);
+			this.readUntilReady(in, out, username, password);
+			this.authNanos = this.endPhase();
+
+			/*
+			 * Terminate
+			 */
+			out.writeByte('X');
+			out.writeInt(4);
+			out.flush();
+		}
+		catch (SocketTimeoutException e) {
+			throw new SQLException("The connection attempt failed.", "08001", e);
+		}
+		catch (IOException e) {
+			throw new SQLException("An I/O error occurred while sending to the backend.", "08006", e);
+		}
+		catch (GeneralSecurityException e) {
+			throw new SQLException("Authentication failed -- " + e.getMessage(), "28000", e);
+		}
+		finally {
+			if (this.phase != null) {
+				this.failedNanos = System.nanoTime() - this.phaseStart;
+			}
+			try { socket.close(); } catch (Exception e) {}
+		}
+	}
+
+	/*
+	 * Record the latency of the completed phases and of the failed phase
+	 */
+	void recordMetrics(String operation, String host) {
+		if (this.connectNanos >= 0)
+			PhaseMetrics.record(operation, PhaseMetrics.PHASE_CONNECT, host, true, this.connectNanos);
+		if (this.tlsNanos >= 0)
+			PhaseMetrics.record(operation, PhaseMetrics.PHASE_TLS, host, true, this.tlsNanos);
+		if (this.authNanos >= 0)
+			PhaseMetrics.record(operation, PhaseMetrics.PHASE_AUTH, host, true, this.authNanos);
+		if (this.phase != null)
+			PhaseMetrics.record(operation, this.phase, host, false, this.failedNanos);
+	}
+
+	/*
+	 * Record the connect and login latency for the timeouts, a timeout
+	 * counts with its duration
+	 */
+	void recordLatency(AdaptiveTimeouts.Host host) {
+		if (this.connectNanos >= 0)
+			host.connect.record(this.connectNanos);
+		else if (PhaseMetrics.PHASE_CONNECT.equals(this.phase) && this.failedNanos >= this.connectTimeout * 1000000L)
+			host.connect.record(this.failedNanos);
+
+		final long tls = Math.max(0, this.tlsNanos);
+		if (this.authNanos >= 0)
+			host.login.record(tls + this.authNanos);
+		else if (this.phase != null && !PhaseMetrics.PHASE_CONNECT.equals(this.phase) && this.failedNanos >= this.loginTimeout * 1000000L)
+			host.login.record(tls + this.failedNanos);
+	}
+
+	ConnectorEvents.TlsHandshake getTlsEvent() {
+		return this.tlsEvent;
+	}
+
+	private void startPhase(String phase) {
+		this.phase = phase;
+		this.phaseStart = System.nanoTime();
+	}
+
+	private long endPhase() {
+		this.phase = null;
+		return System.nanoTime() - this.phaseStart;
+	}
+
+	private Socket startTLS(Socket socket) throws IOException, SQLException, GeneralSecurityException {
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		out.writeInt(8);
+		out.writeInt(SSL_REQUEST_CODE);
+		out.flush();
+
+		int response = socket.getInputStream().read();
+		if (response == 'N') {
+			throw new SQLException("The server does not support SSL.", "08004");
+		}
+		if (response != 'S') {
+			throw new SQLException("An error occurred while setting up the SSL connection.", "08006");
+		}
+
+		/*
+		 * Shared context, thus the session of a previous connection to the
+		 * server is resumed
+		 */
+		final TlsContexts contexts = TlsContexts.getInstance();
+		final String validation = TlsContexts.getValidation();
+		SSLSocket ssl = (SSLSocket) contexts.getContext(validation).getSocketFactory().createSocket(socket, this.hostname, this.port, true);
+		ssl.setUseClientMode(true);
+		TlsContexts.configure(ssl, validation);
+		this.tlsEvent = new ConnectorEvents.TlsHandshake();
+		this.tlsEvent.outcome = ConnectorEvents.OUTCOME_ERROR;
+		this.tlsEvent.begin();
+		contexts.started(ssl);
+		boolean success = false;
+		try {
+			ssl.startHandshake();
+			success = true;
+			this.tlsEvent.outcome = ConnectorEvents.OUTCOME_OK;
+			if (this.tlsEvent.isEnabled()) {
+				this.tlsEvent.protocol = ssl.getSession().getProtocol();
+				this.tlsEvent.cipherSuite = ssl.getSession().getCipherSuite();
+			}
+		}
+		finally {
+			this.tlsEvent.resumed = contexts.completed(ssl, success);
+			this.tlsEvent.end();
+		}
+		return ssl;
+	}
+
+	private void sendStartup(DataOutputStream out, String username) throws IOException {
+		ByteArrayOutputStream params = new ByteArrayOutputStream(64);
+		writeCString(params, "user");
+		writeCString(params, username);
+		if (this.database != null && !this.database.isEmpty()) {
+			writeCString(params, "database");
+			writeCString(params, this.database);
+		}
+		writeCString(params, "application_name");
+		writeCString(params, "PostgreSQL PAM connector");
+		params.write(0);
+
+		out.writeInt(8 + params.size());
+		out.writeInt(PROTOCOL_VERSION_3);
+		params.writeTo(out);
+		out.flush();
+	}
+
+	private void readUntilReady(DataInputStream in, DataOutputStream out, String username, String password)
+			throws IOException, SQLException, GeneralSecurityException {
+		ScramExchange scram = null;
+
+		while (true) {
+			final int type = in.readUnsignedByte();
+			int length = in.readInt() - 4;
+
+			switch (type) {
+			case 'R':
+				final int code = in.readInt();
+				length -= 4;
+				switch (code) {
+				case AUTH_OK:
+					break;
+				case AUTH_CLEARTEXT:
+					sendPassword(out, password.getBytes(StandardCharsets.UTF_8));
+					break;
+				case AUTH_MD5:
+					byte[] salt = new byte[4];
+					in.readFully(salt);
+					length -= 4;
+					sendPassword(out, md5Password(username, password, salt));
+					break;
+				case AUTH_SASL:
+					byte[] mechanisms = new byte[length];
+					in.readFully(mechanisms);
+					length = 0;
+					if (!new String(mechanisms, StandardCharsets.UTF_8).contains(Scram.MECHANISM + "\0")) {
+						throw new SQLException("None of the server's SASL authentication mechanisms are supported.", "08004");
+					}
+					scram = new ScramExchange(password);
+					sendSASLInitialResponse(out, scram.clientFirstMessage());
+					break;
+				case AUTH_SASL_CONTINUE:
+				case AUTH_SASL_FINAL:
+					if (scram == null) {
+						throw new SQLException("Unexpected SASL message from server.", "08P01");
+					}
+					byte[] data = new byte[length];
+					in.readFully(data);
+					length = 0;
+					if (code == AUTH_SASL_CONTINUE) {
+						sendSASLResponse(out, scram.clientFinalMessage(new String(data, StandardCharsets.UTF_8)));
+					}
+					else {
+						scram.verifyServerFinalMessage(new String(data, StandardCharsets.UTF_8));
+					}
+					break;
+				default:
+					throw new SQLException("The authentication type " + code + " is not supported.", "08004");
+				}
+				skip(in, length);
+				break;
+
+			case 'E':
+				throw readError(in, length);
+
+			case 'Z':
+				skip(in, length);
+				return;
+
+			default:
+				/*
+				 * ParameterStatus, BackendKeyData, NoticeResponse, NegotiateProtocolVersion
+				 */
+				skip(in, length);
+				break;
+			}
+		}
+	}
+
+	/*
+	 * ErrorResponse, formatted like the JDBC driver does
+	 */
+	private static SQLException readError(DataInputStream in, int length) throws IOException {
+		byte[] body = new byte[length];
+		in.readFully(body);
+
+		String severity = "ERROR";
+		String sqlState = null;
+		String message = "";
+		int pos = 0;
+		while (pos < body.length && body[pos] != 0) {
+			final byte field = body[pos++];
+			int end = pos;
+			while (end < body.length && body[end] != 0)
+				end++;
+			final String value = new String(body, pos, end - pos, StandardCharsets.UTF_8);
+			pos = end + 1;
+			if (field == 'S')
+				severity = value;
+			else if (field == 'C')
+				sqlState = value;
+			else if (field == 'M')
+				message = value;
+		}
+		return new SQLException(severity + ": " + message, sqlState);
+	}
+
+	private static void sendPassword(DataOutputStream out, byte[] data) throws IOException {
+		out.writeByte('p');
+		out.writeInt(4 + data.length + 1);
+		out.write(data);
+		out.writeByte(0);
+		out.flush();
+	}
+
+	/*
+	 * SASLResponse, unlike PasswordMessage the data is not null terminated
+	 */
+	private static void sendSASLResponse(DataOutputStream out, byte[] data) throws IOException {
+		out.writeByte('p');
+		out.writeInt(4 + data.length);
+		out.write(data);
+		out.flush();
+	}
+
+	private static void sendSASLInitialResponse(DataOutputStream out, byte[] data) throws IOException {
+		final byte[] mechanism = Scram.MECHANISM.getBytes(StandardCharsets.US_ASCII);
+		out.writeByte('p');
+		out.writeInt(4 + mechanism.length + 1 + 4 + data.length);
+		out.write(mechanism);
+		out.writeByte(0);
+		out.writeInt(data.length);
+		out.write(data);
+		out.flush();
+	}
+
+	/*
+	 * "md5" + md5(md5(password + username) + salt)
+	 */
+	private static byte[] md5Password(String username, String password, byte[] salt) throws GeneralSecurityException {
+		MessageDigest md = MessageDigest.getInstance("MD5");
+		md.update(password.getBytes(StandardCharsets.UTF_8));
+		md.update(username.getBytes(StandardCharsets.UTF_8));
+		final byte[] inner = toHex(md.digest()).getBytes(StandardCharsets.US_ASCII);
+		md.update(inner);
+		md.update(salt);
+		return ("md5" + toHex(md.digest())).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static void writeCString(ByteArrayOutputStream out, String value) {
+		byte[] b = value.getBytes(StandardCharsets.UTF_8);
+		out.write(b, 0, b.length);
+		out.write(0);
+	}
+
+	private static void skip(DataInputStream in, int length) throws IOException {
+		while (length > 0) {
+			int skipped = in.skipBytes(length);
+			if (skipped <= 0) {
+				in.readByte();
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+	/*
+	 * Client side of a SCRAM-SHA-256 exchange without channel binding
+	 */
+	private static final class ScramExchange {
+		private final String password;
+		private final String clientNonce;
+		private String clientFirstBare;
+		private byte[] expectedServerSignature;
+
+		private ScramExchange(String password) {
+			this.password = password;
+			byte[] nonce = new byte[18];
+			RANDOM.nextBytes(nonce);
+			this.clientNonce = Base64.getEncoder().encodeToString(nonce);
+		}
+
+		private byte[] clientFirstMessage() {
+			/*
+			 * The server takes the user name from the startup message
+			 */
+			this.clientFirstBare = "n=,r=" + this.clientNonce;
+			return ("n,," + this.clientFirstBare).getBytes(StandardCharsets.UTF_8);
+		}
+
+		private byte[] clientFinalMessage(String serverFirst) throws SQLException, GeneralSecurityException {
+			String nonce = null;
+			byte[] salt = null;
+			int iterations = -1;
+			for (String attribute : serverFirst.split(",")) {
+				if (attribute.startsWith("r="))
+					nonce = attribute.substring(2);
+				else if (attribute.startsWith("s="))
+					salt = Base64.getDecoder().decode(attribute.substring(2));
+				else if (attribute.startsWith("i="))
+					iterations = Integer.parseInt(attribute.substring(2));
+			}
+			if (nonce == null || salt == null || iterations <= 0 || !nonce.startsWith(this.clientNonce)) {
+				throw new SQLException("Invalid SCRAM server-first-message.", "08P01");
+			}
+
+			final String clientFinalWithoutProof = "c=biws,r=" + nonce;
+			final byte[] authMessage = (this.clientFirstBare + "," + serverFirst + "," + clientFinalWithoutProof).getBytes(StandardCharsets.UTF_8);
+
+			final Scram.Keys keys = ScramKeyCache.getInstance().deriveKeys(this.password, salt, iterations);
+			final byte[] clientSignature = Scram.hmac(keys.storedKey, authMessage);
+			final byte[] proof = Scram.xor(keys.clientKey, clientSignature);
+			this.expectedServerSignature = Scram.hmac(keys.serverKey, authMessage);
+
+			return (clientFinalWithoutProof + ",p=" + Base64.getEncoder().encodeToString(proof)).getBytes(StandardCharsets.UTF_8);
+		}
+
+		private void verifyServerFinalMessage(String serverFinal) throws SQLException {
+			if (serverFinal.startsWith("e=")) {
+				throw new SQLException("FATAL: SCRAM authentication failed -- " + serverFinal.substring(2), "28P01");
+			}
+			if (!serverFinal.startsWith("v=") || this.expectedServerSignature == null
+					|| !MessageDigest.isEqual(this.expectedServerSignature, Base64.getDecoder().decode(serverFinal.substring(2)))) {
+				throw new SQLException("Invalid server SCRAM signature.", "08P01");
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Executor for the batch requests.
+ *
+ * The number of threads, and thus the number of requests to PostgreSQL
+ * servers running at the same time, is postgresql.batch.maxConcurrency for
+ * all batches together. Requests to the same server and port are further
+ * limited to postgresql.batch.maxPerHost. A request for a server with
+ * maxPerHost requests running waits in the queue of the server, not on a
+ * thread of the pool, and is handed to the pool when a request of the
+ * server completes. Thus a server with many accounts does not hold back
+ * the other servers and batches. The queue of a server is removed when its
+ * last request completes.
+ */
+final class BatchExecutor {
+
+	private static final int MAX_CONCURRENCY = Math.max(1, ExtensionProperties.getInt("postgresql.batch.maxConcurrency", 32));
+	private static final int MAX_PER_HOST = Math.max(1, ExtensionProperties.getInt("postgresql.batch.maxPerHost", 4));
+
+	private static final Map<String, HostQueue> HOST_QUEUES = new ConcurrentHashMap<>();
+
+	private static ExecutorService executor = null;
+
+	private BatchExecutor() {
+	}
+
+	/*
+	 * The tasks of one batch, completed tasks are taken in the order they
+	 * complete
+	 */
+	static final class Batch<T> {
+		private final BlockingQueue<Future<T>> completed = new LinkedBlockingQueue<>();
+
+		/**
+		 * Run the task when the host has a free slot
+		 */
+		Future<T> submit(String hostKey, Callable<T> task) {
+			final Task<T> t = new Task<>(task, this.completed);
+			while (!HOST_QUEUES.computeIfAbsent(hostKey, HostQueue::new).add(t)) {
+				/* removed meanwhile, take the new one */
+			}
+			return t;
+		}
+
+		/**
+		 * Next completed task, waiting for one
+		 */
+		Future<T> take() throws InterruptedException {
+			return this.completed.take();
+		}
+	}
+
+	private static final class Task<T> extends FutureTask<T> {
+		private final BlockingQueue<Future<T>> completed;
+
+		Task(Callable<T> task, BlockingQueue<Future<T>> completed) {
+			super(task);
+			this.completed = completed;
+		}
+
+		@Override
+		protected void done() {
+			this.completed.add(this);
+		}
+
+		void reject(RejectedExecutionException e) {
+			this.setException(e);
+		}
+	}
+
+	/*
+	 * Tasks of one host, at most MAX_PER_HOST running
+	 */
+	private static final class HostQueue {
+		private final String hostKey;
+		private final ArrayDeque<Task<?>> waiting = new ArrayDeque<>();
+		private int running = 0;
+		private boolean removed = false;
+
+		HostQueue(String hostKey) {
+			this.hostKey = hostKey;
+		}
+
+		/**
+		 * @return false if the queue was removed, the task is not added
+		 */
+		boolean add(Task<?> task) {
+			synchronized (this) {
+				if (this.removed)
+					return false;
+				if (this.running >= MAX_PER_HOST) {
+					this.waiting.add(task);
+					return true;
+				}
+				this.running++;
+			}
+			this.execute(task);
+			return true;
+		}
+
+		private void execute(Task<?> task) {
+			try {
+				getExecutor().execute(() -> {
+					try {
+						task.run();
+					}
+					finally {
+						this.next();
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				task.reject(e);
+				this.next();
+			}
+		}
+
+		/*
+		 * A task is done, start the next waiting one. The queue is removed
+		 * when none is running.
+		 */
+		private void next() {
+			final Task<?> task;
+			synchronized (this) {
+				task = this.waiting.poll();
+				if (task == null) {
+					if (--this.running == 0) {
+						this.removed = true;
+						HOST_QUEUES.remove(this.hostKey, this);
+					}
+					return;
+				}
+			}
+			this.execute(task);
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			final AtomicInteger counter = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(MAX_CONCURRENCY, r -> {
+				Thread t = new Thread(r, "postgresql-batch-" + counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return executor;
+	}
+
+	/*
+	 * Stop the threads. Called when the connector is undeployed.
+	 */
+	static synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		HOST_QUEUES.clear();
+	}
+}
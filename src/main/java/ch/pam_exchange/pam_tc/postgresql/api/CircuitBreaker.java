@@ -0,0 +1,194 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/*
+ * Circuit breaker per host:port.
+ *
+ * After postgresql.breaker.failureThreshold consecutive connection failures
+ * the circuit is opened and connection attempts to the host fail at once,
+ * without waiting for the connect timeout. After postgresql.breaker.openDuration
+ * milliseconds a single probe is let through (half-open). If the probe reaches
+ * the server the circuit is closed, otherwise it is opened again. acquire
+ * returns a token to the probe, only the release with the token ends the
+ * half-open state, a connection attempted before the circuit opened and
+ * ending during the probe does not.
+ *
+ * Only failures to reach the server count. An authentication error shows
+ * that the server is up.
+ */
+final class CircuitBreaker implements CircuitBreakerMXBean {
+
+	private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+	static final String OBJECT_NAME = "ch.pam_exchange.pam_tc.postgresql:type=CircuitBreaker";
+
+	private static final int FAILURE_THRESHOLD = ExtensionProperties.getInt("postgresql.breaker.failureThreshold", 5);
+	private static final long OPEN_DURATION = ExtensionProperties.getLong("postgresql.breaker.openDuration", 30000);
+
+	private static final CircuitBreaker INSTANCE = new CircuitBreaker();
+
+	static CircuitBreaker getInstance() {
+		return INSTANCE;
+	}
+
+	enum State { CLOSED, OPEN, HALF_OPEN }
+
+	/*
+	 * Thrown instead of connecting when the circuit is open
+	 */
+	static final class OpenException extends SQLException {
+		private static final long serialVersionUID = 1L;
+
+		OpenException(String hostKey) {
+			super("Circuit open for " + hostKey + ", connection not attempted", "08001");
+		}
+	}
+
+	private static final class Circuit {
+		private State state = State.CLOSED;
+		private int failures = 0;
+		private long openedAt = 0;
+		/* token of the half-open probe, null if none is running */
+		private Object probe = null;
+	}
+
+	private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder transitions = new LongAdder();
+
+	private CircuitBreaker() {
+	}
+
+	/**
+	 * Ask to connect to the host. Every successful call must be followed by
+	 * a call to release() with the token returned.
+	 *
+	 * @param hostKey host:port
+	 * @return the token of the half-open probe, null for any other attempt
+	 * @throws OpenException if the circuit is open
+	 */
+	Object acquire(String hostKey) throws OpenException {
+		if (FAILURE_THRESHOLD <= 0)
+			return null;
+		Circuit circuit = this.circuits.computeIfAbsent(hostKey, k -> new Circuit());
+		synchronized (circuit) {
+			switch (circuit.state) {
+			case CLOSED:
+				return null;
+			case OPEN:
+				if (System.currentTimeMillis() - circuit.openedAt >= OPEN_DURATION) {
+					this.transition(hostKey, circuit, State.HALF_OPEN);
+					circuit.probe = new Object();
+					return circuit.probe;
+				}
+				break;
+			case HALF_OPEN:
+				if (circuit.probe == null) {
+					circuit.probe = new Object();
+					return circuit.probe;
+				}
+				break;
+			}
+		}
+		this.rejected.increment();
+		throw new OpenException(hostKey);
+	}
+
+	/**
+	 * Report the result of a connection attempt.
+	 *
+	 * @param hostKey   host:port
+	 * @param probe     the token returned by acquire
+	 * @param reachable false if the server could not be reached
+	 */
+	void release(String hostKey, Object probe, boolean reachable) {
+		if (FAILURE_THRESHOLD <= 0)
+			return;
+		Circuit circuit = this.circuits.get(hostKey);
+		if (circuit == null)
+			return;
+		synchronized (circuit) {
+			final boolean owner = probe != null && probe == circuit.probe;
+			if (circuit.state == State.HALF_OPEN && !owner)
+				return;
+			if (owner)
+				circuit.probe = null;
+			if (reachable) {
+				circuit.failures = 0;
+				if (circuit.state != State.CLOSED) {
+					this.transition(hostKey, circuit, State.CLOSED);
+				}
+			}
+			else {
+				circuit.failures++;
+				if (circuit.state == State.HALF_OPEN || (circuit.state == State.CLOSED && circuit.failures >= FAILURE_THRESHOLD)) {
+					circuit.openedAt = System.currentTimeMillis();
+					this.transition(hostKey, circuit, State.OPEN);
+				}
+			}
+		}
+	}
+
+	/*
+	 * True if the exception shows that the server could not be reached
+	 */
+	static boolean isConnectionFailure(SQLException e) {
+		if ("08001".equals(e.getSQLState()) || "08006".equals(e.getSQLState()))
+			return true;
+		return e.getMessage() != null && e.getMessage().contains("Check that the hostname and port are correct");
+	}
+
+	private void transition(String hostKey, Circuit circuit, State state) {
+		final State previous = circuit.state;
+		circuit.state = state;
+		this.transitions.increment();
+		if (state == State.OPEN)
+			LOGGER.warning(() -> LoggerWrapper.logMessage("Circuit for " + hostKey + " " + previous + " -> " + state + " after " + circuit.failures + " connection failure(s)"));
+		else
+			LOGGER.info(() -> LoggerWrapper.logMessage("Circuit for " + hostKey + " " + previous + " -> " + state));
+	}
+
+	/*
+	 * MXBean attributes
+	 */
+	@Override
+	public Map<String, String> getStates() {
+		Map<String, String> states = new TreeMap<>();
+		for (Map.Entry<String, Circuit> e : this.circuits.entrySet()) {
+			synchronized (e.getValue()) {
+				states.put(e.getKey(), e.getValue().state + " (" + e.getValue().failures + " failures)");
+			}
+		}
+		return states;
+	}
+
+	@Override
+	public int getOpenCircuits() {
+		int count = 0;
+		for (Circuit circuit : this.circuits.values()) {
+			synchronized (circuit) {
+				if (circuit.state != State.CLOSED)
+					count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public long getRejectedRequests() {
+		return this.rejected.sum();
+	}
+
+	@Override
+	public long getTransitions() {
+		return this.transitions.sum();
+	}
+}
@@ -0,0 +1,20 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.Map;
+
+/*
+ * State of the circuit breakers, published with JMX
+ */
+public interface CircuitBreakerMXBean {
+
+	/*
+	 * State per host:port, with the number of consecutive connection failures
+	 */
+	Map<String, String> getStates();
+
+	int getOpenCircuits();
+
+	long getRejectedRequests();
+
+	long getTransitions();
+}
@@ -0,0 +1,83 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Timing of one JDBC connection attempt.
+ *
+ * The JDBC driver creates the socket with TimedSocketFactory, possibly in
+ * a thread of its own. The factory finds the timing of the attempt by the
+ * id passed in the socketFactoryArg connection property.
+ */
+final class ConnectionTiming implements AutoCloseable {
+
+	private static final Map<String, ConnectionTiming> ACTIVE = new ConcurrentHashMap<>();
+	private static final AtomicLong NEXT_ID = new AtomicLong();
+
+	private final String id;
+	private volatile long connectNanos = -1;
+	private volatile boolean connected = false;
+	private volatile Socket tlsSocket = null;
+	private volatile int connectTimeout = 0;
+
+	private ConnectionTiming(String id) {
+		this.id = id;
+	}
+
+	static ConnectionTiming start() {
+		ConnectionTiming timing = new ConnectionTiming(Long.toString(NEXT_ID.incrementAndGet()));
+		ACTIVE.put(timing.id, timing);
+		return timing;
+	}
+
+	static ConnectionTiming lookup(String id) {
+		return id == null ? null : ACTIVE.get(id);
+	}
+
+	String getId() {
+		return this.id;
+	}
+
+	long getConnectNanos() {
+		return this.connectNanos;
+	}
+
+	boolean isConnected() {
+		return this.connected;
+	}
+
+	void setConnect(long nanos, boolean connected) {
+		this.connected = connected;
+		this.connectNanos = nanos;
+	}
+
+	/*
+	 * TCP connect timeout in milliseconds, 0 for the one of the driver
+	 */
+	int getConnectTimeout() {
+		return this.connectTimeout;
+	}
+
+	void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/*
+	 * The TLS socket, null if TLS was not used
+	 */
+	Socket getTlsSocket() {
+		return this.tlsSocket;
+	}
+
+	void setTlsSocket(Socket tlsSocket) {
+		this.tlsSocket = tlsSocket;
+	}
+
+	@Override
+	public void close() {
+		ACTIVE.remove(this.id);
+	}
+}
@@ -0,0 +1,88 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+
+/*
+ * Lifecycle of the connector web application.
+ * Publishes the connector statistics with JMX, starts the asynchronous log
+ * and warms up the request path at deployment, releases pooled connections
+ * and background threads at undeployment.
+ */
+public class ConnectorContextListener implements ServletContextListener {
+
+	private static final Logger LOGGER = Logger.getLogger(ConnectorContextListener.class.getName());
+
+	private final List<ObjectName> registered = new ArrayList<>();
+
+	@Override
+	public void contextInitialized(ServletContextEvent sce) {
+		final long deployStart = System.nanoTime();
+		AsyncLogHandler.install();
+		this.register(MasterConnectionPool.OBJECT_NAME, MasterConnectionPool.getInstance());
+		this.register(CircuitBreaker.OBJECT_NAME, CircuitBreaker.getInstance());
+		this.register(VerificationCache.OBJECT_NAME, VerificationCache.getInstance());
+		this.register(ScramKeyCache.OBJECT_NAME, ScramKeyCache.getInstance());
+		this.register(TlsContexts.OBJECT_NAME, TlsContexts.getInstance());
+		this.register(SingleFlight.OBJECT_NAME, SingleFlight.getInstance());
+		this.register(RoleLocks.OBJECT_NAME, RoleLocks.getInstance());
+		this.register(AdaptiveTimeouts.OBJECT_NAME, AdaptiveTimeouts.getInstance());
+		Warmup.start(deployStart);
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent sce) {
+		Warmup.stop();
+		MasterConnectionPool.getInstance().close();
+		BatchExecutor.shutdown();
+		RequestExecutor.shutdown();
+		HostRace.shutdown();
+		VerificationCache.getInstance().clear();
+		ScramKeyCache.getInstance().clear();
+		TargetConfig.clearCache();
+		AdaptiveTimeouts.getInstance().clear();
+		UIDefinitions.clearCache();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : this.registered) {
+			try {
+				server.unregisterMBean(name);
+			}
+			catch (Exception e) {
+				LOGGER.fine(LoggerWrapper.logMessage("Cannot unregister MBean '" + name + "'"));
+			}
+		}
+		this.registered.clear();
+		AsyncLogHandler.uninstall();
+	}
+
+	/*
+	 * Register an MBean, replacing a registration left over from a previous
+	 * deployment of the connector
+	 */
+	private void register(String objectName, Object mbean) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(objectName);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(mbean, name);
+			this.registered.add(name);
+		}
+		catch (Exception e) {
+			LOGGER.log(Level.WARNING, LoggerWrapper.logMessage("Cannot register MBean '" + objectName + "'"), e);
+		}
+	}
+}
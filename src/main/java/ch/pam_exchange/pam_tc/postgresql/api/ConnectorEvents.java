@@ -0,0 +1,113 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * Java Flight Recorder events of the connector.
+ *
+ * The events are found under "PAM / PostgreSQL" in JDK Mission Control. An
+ * event not enabled in the recording costs a field check, thus the events
+ * are created unconditionally and only filled in when shouldCommit() is true.
+ * Passwords and SQL text are never part of an event.
+ */
+final class ConnectorEvents {
+
+	static final String OUTCOME_OK = "ok";
+	static final String OUTCOME_ERROR = "error";
+
+	static final String CHANGE_OWN = "own";
+	static final String CHANGE_OTHER = "other";
+
+	private ConnectorEvents() {
+	}
+
+	/*
+	 * Fields common to all connector events
+	 */
+	@Category({ "PAM", "PostgreSQL" })
+	@StackTrace(false)
+	abstract static class ConnectorEvent extends Event {
+
+		@Label("Host")
+		@Description("Server and port")
+		String host;
+
+		@Label("Database")
+		String database;
+
+		@Label("Role")
+		@Description("Role verified, updated or logging in")
+		String role;
+
+		@Label("Change Process")
+		@Description("own or other (master account)")
+		String changeProcess;
+
+		@Label("Outcome")
+		@Description("ok, or the message code of the failure")
+		String outcome;
+	}
+
+	@Name("ch.pam_exchange.postgresql.CredentialVerify")
+	@Label("Credential Verify")
+	static final class CredentialVerify extends ConnectorEvent {
+
+		@Label("Cached")
+		@Description("Verified by the verification cache without a login")
+		boolean cached;
+	}
+
+	@Name("ch.pam_exchange.postgresql.CredentialUpdate")
+	@Label("Credential Update")
+	static final class CredentialUpdate extends ConnectorEvent {
+
+		@Label("Batch Size")
+		@Description("Number of accounts updated over the same connection")
+		int batchSize;
+	}
+
+	@Name("ch.pam_exchange.postgresql.ConnectionOpen")
+	@Label("Connection Open")
+	static final class ConnectionOpen extends ConnectorEvent {
+
+		@Label("Method")
+		@Description("jdbc or probe")
+		String method;
+	}
+
+	@Name("ch.pam_exchange.postgresql.TlsHandshake")
+	@Label("TLS Handshake")
+	static final class TlsHandshake extends ConnectorEvent {
+
+		@Label("Protocol")
+		String protocol;
+
+		@Label("Cipher Suite")
+		String cipherSuite;
+
+		@Label("Resumed")
+		boolean resumed;
+	}
+
+	@Name("ch.pam_exchange.postgresql.AlterUser")
+	@Label("ALTER USER")
+	static final class AlterUser extends ConnectorEvent {
+	}
+
+	@Name("ch.pam_exchange.postgresql.ErrorClassification")
+	@Label("Error Classification")
+	@StackTrace(true)
+	static final class ErrorClassification extends ConnectorEvent {
+
+		@Label("Exception")
+		String exceptionClass;
+
+		@Label("SQL State")
+		String sqlState;
+	}
+}
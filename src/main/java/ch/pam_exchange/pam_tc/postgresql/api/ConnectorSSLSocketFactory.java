@@ -0,0 +1,70 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.Properties;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/*
+ * SSL socket factory given to the JDBC driver (connection property sslfactory).
+ *
+ * The driver creates a factory per connection, the factory uses the shared
+ * SSLContext of the trust configuration named by the sslfactoryarg
+ * connection property, thus TLS sessions are resumed across connections.
+ */
+public class ConnectorSSLSocketFactory extends SSLSocketFactory {
+
+	private final SSLSocketFactory delegate;
+	private final ConnectionTiming timing;
+
+	public ConnectorSSLSocketFactory(Properties info) throws GeneralSecurityException {
+		this.delegate = TlsContexts.getInstance().getContext(info.getProperty("sslfactoryarg", TlsContexts.VALIDATION_NONE)).getSocketFactory();
+		this.timing = ConnectionTiming.lookup(info.getProperty("socketFactoryArg"));
+	}
+
+	/*
+	 * Used by the driver to layer TLS over the connected socket
+	 */
+	@Override
+	public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+		SSLSocket ssl = (SSLSocket) this.delegate.createSocket(socket, host, port, autoClose);
+		TlsContexts.getInstance().started(ssl);
+		if (this.timing != null)
+			this.timing.setTlsSocket(ssl);
+		return ssl;
+	}
+
+	@Override
+	public String[] getDefaultCipherSuites() {
+		return this.delegate.getDefaultCipherSuites();
+	}
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return this.delegate.getSupportedCipherSuites();
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		return this.delegate.createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		return this.delegate.createSocket(host, port, localHost, localPort);
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		return this.delegate.createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		return this.delegate.createSocket(address, port, localAddress, localPort);
+	}
+}
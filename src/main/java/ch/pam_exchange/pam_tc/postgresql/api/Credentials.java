@@ -20,12 +20,17 @@ import com.ca.pam.extensions.core.util.MessageConstants;
 import com.ca.pam.extensions.core.api.exception.ExtensionException;
 
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,20 +39,21 @@ import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 
 import org.codehaus.jettison.json.JSONObject;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import com.ca.pam.extensions.core.Account;
 import com.ca.pam.extensions.core.Application;
-import com.ca.pam.extensions.core.ConnectorJSONUtil;
 import com.ca.pam.extensions.core.Tab;
 import com.ca.pam.extensions.core.FieldObject;
 import com.ca.pam.extensions.core.util.UIDefinitionManager;
@@ -95,42 +101,52 @@ import com.ca.pam.extensions.core.model.LoggerWrapper;
 public class Credentials {
 
    private static final Logger LOGGER = Logger.getLogger(Credentials.class.getName());
+   private static final ObjectMapper MAPPER = new ObjectMapper();
+   private static final String NDJSON = "application/x-ndjson";
 
    /**
    * Service method that serves credential validation request. 
    * URL mapping for this is /credentials/validate.
-   * @param json -- JSON Request from PAM as a string.
+   * @param body -- JSON Request from PAM, at most postgresql.request.maxBodySize bytes.
    * This method parses and validates the json request and stores the data in
    * instance variables.
    * It calls processCredentialVerify private method that verifies credential 
    * with target device.
+   * The request is processed by the RequestExecutor, releasing the Tomcat
+   * thread while the target device is contacted.
    */
    @POST
    @Path("/validate")
    @Consumes(MediaType.TEXT_PLAIN)
    @Produces(MediaType.APPLICATION_JSON)
-   public Response credentialsValidate(String json) {
+   public void credentialsValidate(InputStream body, @Suspended AsyncResponse asyncResponse) {
+      final byte[] json = readRequest(body, asyncResponse);
+      if (json != null) {
+          RequestExecutor.submit(asyncResponse, () -> validate(json), true);
+      }
+   }
+
+   private Response validate(byte[] json) {
 
-      String duration;
       final long methodStartTime = System.currentTimeMillis();
-      long methodEndTime;
-      TargetAccount targetAccount = new TargetAccount();
+      AccountRequest targetAccount = null;
 
+      final long parseStart = System.nanoTime();
+      boolean parsed = false;
       try {
-          targetAccount = ConnectorJSONUtil.getTargetAccountFromJSON(json);
+          targetAccount = AccountRequest.parse(json);
           validateData(targetAccount, false);
+          parsed = true;
       } catch (ExtensionException e) {
-          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to parse credential verification request."));
-          methodEndTime = System.currentTimeMillis();
-          duration = Long.toString(methodEndTime - methodStartTime);
-          LOGGER.log(Level.INFO, LoggerWrapper.logMessage(getDurationLogMessage("credentialsValidate", false, duration, targetAccount)));
+          LOGGER.log(Level.SEVERE, () -> LoggerWrapper.logMessage("Failed to parse credential verification request."));
+          logDuration("credentialsValidate", false, methodStartTime, targetAccount);
           throw e;
       } catch (Exception e) {
-          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to parse credential verification request."), e);
-          methodEndTime = System.currentTimeMillis();
-          duration = Long.toString(methodEndTime - methodStartTime);
-          LOGGER.log(Level.INFO, LoggerWrapper.logMessage(getDurationLogMessage("credentialsValidate", false, duration, targetAccount)));
+          LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to parse credential verification request."));
+          logDuration("credentialsValidate", false, methodStartTime, targetAccount);
           throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
+      } finally {
+          PhaseMetrics.record(PhaseMetrics.OPERATION_VERIFY, PhaseMetrics.PHASE_PARSE, "", parsed, System.nanoTime() - parseStart);
       }
       
       ExtensionResponse response = null;
@@ -142,92 +158,359 @@ public class Credentials {
            */
           processCredentialVerify(targetAccount) ;
       } catch (ExtensionException e) {
-          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to verify credentials for user: '" + targetAccount.getUserName() + "' on device: '" + targetAccount.getTargetApplication().getTargetServer().getDeviceName()
-                    + "' with targetApplicationName: '" + targetAccount.getTargetApplication().getName() + "'."));
-          methodEndTime = System.currentTimeMillis();
-          duration = Long.toString(methodEndTime - methodStartTime);
-          LOGGER.log(Level.INFO, LoggerWrapper.logMessage(getDurationLogMessage("credentialsValidate", false, duration, targetAccount)));
+          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to verify credentials for user: '" + targetAccount.userName + "' on device: '" + targetAccount.application.deviceName
+                    + "' with targetApplicationName: '" + targetAccount.application.name + "'."));
+          logDuration("credentialsValidate", false, methodStartTime, targetAccount);
           throw e;
       } catch (Exception e) {
-          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to verify credentials for user: '" + targetAccount.getUserName() + "' on device: '" + targetAccount.getTargetApplication().getTargetServer().getDeviceName() 
-                    + "' with targetApplicationName: '" + targetAccount.getTargetApplication().getName() + "'. Reason: "), e);
-          methodEndTime = System.currentTimeMillis();
-          duration = Long.toString(methodEndTime - methodStartTime);
-          LOGGER.log(Level.INFO, LoggerWrapper.logMessage(getDurationLogMessage("credentialsValidate", false, duration, targetAccount)));
+          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to verify credentials for user: '" + targetAccount.userName + "' on device: '" + targetAccount.application.deviceName 
+                    + "' with targetApplicationName: '" + targetAccount.application.name + "'. Reason: "), e);
+          logDuration("credentialsValidate", false, methodStartTime, targetAccount);
           throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
       }
     
       response =  buildSuccessResponse(true);
-      methodEndTime = System.currentTimeMillis();
-      duration = Long.toString(methodEndTime - methodStartTime);
-      LOGGER.log(Level.INFO, LoggerWrapper.logMessage(getDurationLogMessage("credentialsValidate", true, duration, targetAccount)));
+      logDuration("credentialsValidate", true, methodStartTime, targetAccount);
       return Response.status(Response.Status.OK).entity(response).build();
    }
 
    /**
    * Service method that serves credential update request. 
    * URL mapping for this is /credentials/update.
-   * @param json -- JSON Request from PAM as a string.
+   * @param body -- JSON Request from PAM, at most postgresql.request.maxBodySize bytes.
    * This method parses and validates the json request and stores the data in
    * instance variables.
    * It calls processCredentialUpdate private method that updates credential 
    * on target device.
+   * The request is processed by the RequestExecutor, releasing the Tomcat
+   * thread while the target device is contacted.
    */
    @POST
    @Path("/update")
    @Consumes(MediaType.TEXT_PLAIN)
    @Produces(MediaType.APPLICATION_JSON)
-   public Response credentialsUpdate(String json) {
+   public void credentialsUpdate(InputStream body, @Suspended AsyncResponse asyncResponse) {
+      final byte[] json = readRequest(body, asyncResponse);
+      if (json != null) {
+          RequestExecutor.submit(asyncResponse, () -> update(json), false);
+      }
+   }
+
+   private Response update(byte[] json) {
       ExtensionResponse response = null;
-      String duration;
       final long methodStartTime = System.currentTimeMillis();
-      long methodEndTime;
       
-      TargetAccount targetAccount = new TargetAccount();
+      AccountRequest targetAccount = null;
 
+      final long parseStart = System.nanoTime();
+      boolean parsed = false;
       try {
-          targetAccount = ConnectorJSONUtil.getTargetAccountFromJSON(json);
+          targetAccount = AccountRequest.parse(json);
           validateData(targetAccount, false);
+          parsed = true;
       } catch (ExtensionException e) {
-          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to parse credential update request."));
-          methodEndTime = System.currentTimeMillis();
-          duration = Long.toString(methodEndTime - methodStartTime);
-          LOGGER.log(Level.INFO, LoggerWrapper.logMessage(getDurationLogMessage("credentialsUpdate", false, duration, targetAccount)));
+          LOGGER.log(Level.SEVERE, () -> LoggerWrapper.logMessage("Failed to parse credential update request."));
+          logDuration("credentialsUpdate", false, methodStartTime, targetAccount);
           throw e;
       } catch (Exception e) {
-          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to parse credential update request."), e);
-          methodEndTime = System.currentTimeMillis();
-          duration = Long.toString(methodEndTime - methodStartTime);
-          LOGGER.log(Level.INFO, LoggerWrapper.logMessage(getDurationLogMessage("credentialsUpdate", false, duration, targetAccount)));
+          LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to parse credential update request."));
+          logDuration("credentialsUpdate", false, methodStartTime, targetAccount);
           throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
+      } finally {
+          PhaseMetrics.record(PhaseMetrics.OPERATION_UPDATE, PhaseMetrics.PHASE_PARSE, "", parsed, System.nanoTime() - parseStart);
       }
 
       try {
           processCredentialUpdate (targetAccount);
       } catch (ExtensionException e) {
-          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to update credentials for user: '" + targetAccount.getUserName() + "' on device: '" + targetAccount.getTargetApplication().getTargetServer().getDeviceName()
-                  + "' with targetApplicationName: '" + targetAccount.getTargetApplication().getName() + "'."));
-          methodEndTime = System.currentTimeMillis();
-          duration = Long.toString(methodEndTime - methodStartTime);
-          LOGGER.log(Level.INFO, LoggerWrapper.logMessage(getDurationLogMessage("credentialsUpdate", false, duration, targetAccount)));
+          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to update credentials for user: '" + targetAccount.userName + "' on device: '" + targetAccount.application.deviceName
+                  + "' with targetApplicationName: '" + targetAccount.application.name + "'."));
+          logDuration("credentialsUpdate", false, methodStartTime, targetAccount);
           throw e;  
       } catch (Exception e) {
-          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to update credentials for user: '" + targetAccount.getUserName() + "' on device: '" + targetAccount.getTargetApplication().getTargetServer().getDeviceName()
-                  + "' with targetApplicationName: '" + targetAccount.getTargetApplication().getName() + "'. Reason: "), e);
-          methodEndTime = System.currentTimeMillis();
-          duration = Long.toString(methodEndTime - methodStartTime);
-          LOGGER.log(Level.INFO, LoggerWrapper.logMessage(getDurationLogMessage("credentialsUpdate", false, duration,targetAccount)));
+          LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to update credentials for user: '" + targetAccount.userName + "' on device: '" + targetAccount.application.deviceName
+                  + "' with targetApplicationName: '" + targetAccount.application.name + "'. Reason: "), e);
+          logDuration("credentialsUpdate", false, methodStartTime, targetAccount);
           throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
       }
 
       response =  buildSuccessResponse(true);
-      methodEndTime = System.currentTimeMillis();
-      duration = Long.toString(methodEndTime - methodStartTime);
-      LOGGER.log(Level.INFO, LoggerWrapper.logMessage(getDurationLogMessage("credentialsUpdate", true, duration,targetAccount)));
+      logDuration("credentialsUpdate", true, methodStartTime, targetAccount);
       return Response.status(Response.Status.OK).entity(response).build();     
       
    }
 
+   /**
+   * Service method that serves a batch of credential update requests.
+   * URL mapping for this is /credentials/updateBatch.
+   * @param body -- JSON array of credential update requests from PAM, at most
+   * postgresql.request.maxBatchBodySize bytes.
+   * Accounts updated by the same master account on the same server are
+   * updated using one login. An account changing its own password logs in
+   * on its own.
+   * The logins are run concurrently, limited by the settings
+   * postgresql.batch.maxConcurrency and postgresql.batch.maxPerHost, and
+   * the batch is processed by the RequestExecutor, releasing the Tomcat
+   * thread.
+   * The response is a JSON array with one result per request, in the order
+   * of the requests. Failed requests carry the same message codes as
+   * /credentials/update.
+   */
+   @POST
+   @Path("/updateBatch")
+   @Consumes(MediaType.TEXT_PLAIN)
+   @Produces(MediaType.APPLICATION_JSON)
+   public void credentialsUpdateBatch(InputStream body, @Suspended AsyncResponse asyncResponse) {
+      final byte[] json = readRequest(body, AccountRequest.MAX_BATCH_BODY_SIZE, asyncResponse);
+      if (json != null) {
+          RequestExecutor.submit(asyncResponse, () -> updateBatch(json), false);
+      }
+   }
+
+   private Response updateBatch(byte[] json) {
+      final long methodStartTime = System.currentTimeMillis();
+      List<Object> requests;
+
+      try {
+          requests = AccountRequest.parseBatch(json);
+      } catch (Exception e) {
+          LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to parse credential batch update request."));
+          throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
+      }
+
+      final int count = requests.size();
+      final String[] userNames = new String[count];
+      final PostgreSQL.Failure[] failures = new PostgreSQL.Failure[count];
+
+      /*
+       * Group the accounts by the login used for the update.
+       * Accounts changing their own password are a group of their own.
+       */
+      Map<Object, List<Integer>> groups = new LinkedHashMap<>();
+      List<PostgreSQL> accounts = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+          final int index = i;
+          PostgreSQL postgresql = null;
+          try {
+              AccountRequest targetAccount = request(requests.get(i));
+              userNames[i] = targetAccount.userName;
+              String missingArgs = getMissingArguments(targetAccount, false);
+              if (!missingArgs.isEmpty()) {
+                  LOGGER.log(Level.SEVERE, () -> LoggerWrapper.logMessage("Missing mandatory arguments in request " + index + ": " + missingArgs));
+                  failures[i] = new PostgreSQL.Failure(MessageConstants.MISSING_ARGUMENTS, missingArgs);
+              } else {
+                  postgresql = new PostgreSQL(targetAccount);
+                  Object key = postgresql.getBatchKey();
+                  groups.computeIfAbsent(key != null ? key : new Object(), k -> new ArrayList<>()).add(i);
+              }
+          } catch (Exception e) {
+              LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to parse credential update request " + index + "."));
+              failures[i] = new PostgreSQL.Failure(MessageConstants.SERVER_ERROR);
+          }
+          accounts.add(postgresql);
+      }
+
+      /*
+       * One task per login, queued by host as /validateBatch does
+       */
+      BatchExecutor.Batch<PostgreSQL.Failure[]> batch = new BatchExecutor.Batch<>();
+      List<Future<PostgreSQL.Failure[]>> futures = new ArrayList<>(groups.size());
+      for (List<Integer> group : groups.values()) {
+          List<PostgreSQL> members = new ArrayList<>(group.size());
+          for (int i : group) {
+              members.add(accounts.get(i));
+          }
+          futures.add(batch.submit(members.get(0).getHostKey(), () -> PostgreSQL.credentialUpdateBatch(members)));
+      }
+
+      int g = 0;
+      for (List<Integer> group : groups.values()) {
+          PostgreSQL.Failure[] result = null;
+          try {
+              result = futures.get(g++).get();
+          } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              LOGGER.log(Level.SEVERE, () -> LoggerWrapper.logMessage("Interrupted while updating credentials."));
+          } catch (ExecutionException e) {
+              LOGGER.log(Level.SEVERE, e.getCause(), () -> LoggerWrapper.logMessage("Failed to update credentials of a batch login."));
+          }
+          for (int j = 0; j < group.size(); j++) {
+              failures[group.get(j)] = result != null ? result[j] : new PostgreSQL.Failure(MessageConstants.SERVER_ERROR);
+          }
+      }
+
+      List<Map<String, Object>> response = new ArrayList<>(count);
+      int updated = 0;
+      for (int i = 0; i < count; i++) {
+          if (failures[i] == null) {
+              updated++;
+          }
+          response.add(buildBatchEntry(i, userNames[i], failures[i]));
+      }
+
+      final long duration = System.currentTimeMillis() - methodStartTime;
+      if (LOGGER.isLoggable(Level.INFO)) {
+          LOGGER.log(Level.INFO, LoggerWrapper.logMessage("Duration of call to method credentialsUpdateBatch for " + count + " accounts ("
+                     + updated + " updated, " + groups.size() + " logins) = " + duration + " ms."));
+      }
+      return Response.status(Response.Status.OK).entity(response).build();
+   }
+
+   /**
+   * Service method that serves a batch of credential validation requests.
+   * URL mapping for this is /credentials/validateBatch.
+   * @param body -- JSON array of credential validation requests from PAM, at
+   * most postgresql.request.maxBatchBodySize bytes.
+   * The accounts are verified concurrently, limited by the settings
+   * postgresql.batch.maxConcurrency and postgresql.batch.maxPerHost.
+   * The response is streamed as newline delimited JSON with one line per
+   * request, written as soon as the request is completed.
+   */
+   @POST
+   @Path("/validateBatch")
+   @Consumes(MediaType.TEXT_PLAIN)
+   @Produces(NDJSON)
+   public Response credentialsValidateBatch(InputStream body) {
+      final long methodStartTime = System.currentTimeMillis();
+      List<Object> requests;
+
+      try {
+          requests = AccountRequest.parseBatch(AccountRequest.readBody(body, AccountRequest.MAX_BATCH_BODY_SIZE));
+      } catch (ExtensionException e) {
+          LOGGER.log(Level.SEVERE, () -> LoggerWrapper.logMessage("Credential batch verification request larger than " + AccountRequest.MAX_BATCH_BODY_SIZE + " bytes."));
+          throw e;
+      } catch (Exception e) {
+          LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to parse credential batch verification request."));
+          throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
+      }
+
+      StreamingOutput stream = output -> {
+          final int count = requests.size();
+          int pending = 0;
+          int verified = 0;
+          List<Future<Map<String, Object>>> futures = new ArrayList<>(count);
+
+          /*
+           * Parse all requests first. Failed requests are written at once,
+           * the others are submitted by host, a host with many accounts
+           * queues its own requests and does not hold back the others.
+           */
+          Map<String, List<Callable<Map<String, Object>>>> byHost = new LinkedHashMap<>();
+          for (int i = 0; i < count; i++) {
+              final int index = i;
+              String userName = null;
+              try {
+                  AccountRequest targetAccount = request(requests.get(i));
+                  userName = targetAccount.userName;
+                  String missingArgs = getMissingArguments(targetAccount, false);
+                  if (!missingArgs.isEmpty()) {
+                      LOGGER.log(Level.SEVERE, () -> LoggerWrapper.logMessage("Missing mandatory arguments in request " + index + ": " + missingArgs));
+                      writeBatchEntry(output, buildBatchEntry(i, userName, new PostgreSQL.Failure(MessageConstants.MISSING_ARGUMENTS, missingArgs)));
+                      continue;
+                  }
+                  final PostgreSQL postgresql = new PostgreSQL(targetAccount);
+                  final String name = userName;
+                  byHost.computeIfAbsent(postgresql.getHostKey(), k -> new ArrayList<>())
+                        .add(() -> buildBatchEntry(index, name, postgresql.verify()));
+              } catch (Exception e) {
+                  LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to parse credential verification request " + index + "."));
+                  writeBatchEntry(output, buildBatchEntry(i, userName, new PostgreSQL.Failure(MessageConstants.SERVER_ERROR)));
+              }
+          }
+
+          BatchExecutor.Batch<Map<String, Object>> completion = new BatchExecutor.Batch<>();
+          for (Map.Entry<String, List<Callable<Map<String, Object>>>> host : byHost.entrySet()) {
+              for (Callable<Map<String, Object>> task : host.getValue()) {
+                  futures.add(completion.submit(host.getKey(), task));
+                  pending++;
+              }
+          }
+
+          try {
+              for (; pending > 0; pending--) {
+                  Map<String, Object> entry = completion.take().get();
+                  if (Boolean.TRUE.equals(entry.get("success"))) {
+                      verified++;
+                  }
+                  writeBatchEntry(output, entry);
+              }
+          } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IOException("Interrupted while verifying credentials", e);
+          } catch (ExecutionException e) {
+              throw new IOException("Failed to verify credentials", e.getCause());
+          } finally {
+              /*
+               * Client gone or failure, do not continue with the remaining accounts
+               */
+              for (Future<Map<String, Object>> f : futures) {
+                  f.cancel(true);
+              }
+          }
+
+          final long duration = System.currentTimeMillis() - methodStartTime;
+          if (LOGGER.isLoggable(Level.INFO)) {
+              LOGGER.log(Level.INFO, LoggerWrapper.logMessage("Duration of call to method credentialsValidateBatch for " + count + " accounts ("
+                         + verified + " verified, " + byHost.size() + " hosts) = " + duration + " ms."));
+          }
+      };
+      return Response.status(Response.Status.OK).entity(stream).build();
+   }
+
+   /**
+   * Read the body of a request, resuming the response with the error if
+   * it cannot be read or is too large
+   * @return the body, null if the response is resumed
+   */
+   private byte[] readRequest(InputStream body, AsyncResponse asyncResponse) {
+      return readRequest(body, AccountRequest.MAX_BODY_SIZE, asyncResponse);
+   }
+
+   private byte[] readRequest(InputStream body, int maxSize, AsyncResponse asyncResponse) {
+      try {
+          return AccountRequest.readBody(body, maxSize);
+      } catch (ExtensionException e) {
+          LOGGER.log(Level.SEVERE, () -> LoggerWrapper.logMessage("Request larger than " + maxSize + " bytes."));
+          asyncResponse.resume(e);
+      } catch (Exception e) {
+          LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to read request."));
+          asyncResponse.resume(new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]));
+      }
+      return null;
+   }
+
+   /**
+   * Parsed request of a batch, throwing the exception of a request that
+   * failed to parse
+   */
+   private AccountRequest request(Object parsed) throws Exception {
+      if (parsed instanceof Exception) {
+          throw (Exception) parsed;
+      }
+      return (AccountRequest) parsed;
+   }
+
+   /**
+   * Result of one request in a batch
+   */
+   private Map<String, Object> buildBatchEntry(int index, String userName, PostgreSQL.Failure failure) {
+      Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("index", index);
+      entry.put("userName", userName);
+      entry.put("success", failure == null);
+      if (failure != null) {
+          entry.put("code", failure.getCode());
+          entry.put("args", failure.getArgs());
+      }
+      return entry;
+   }
+
+   private void writeBatchEntry(OutputStream output, Map<String, Object> entry) throws IOException {
+      output.write(MAPPER.writeValueAsBytes(entry));
+      output.write('\n');
+      output.flush();
+   }
+
    /**
    * Build the success response
    * @param successValue
@@ -246,71 +529,80 @@ public class Credentials {
    * @throws ExtensionException if there is any error parsing the request or
    * if the data is invalid.
    */
-   private boolean validateData (TargetAccount targetAccount, boolean isUpdate) throws ExtensionException {
+   private boolean validateData (AccountRequest targetAccount, boolean isUpdate) throws ExtensionException {
+      String missingArgs = getMissingArguments(targetAccount, isUpdate);
+      if (!missingArgs.isEmpty()) {
+        LOGGER.log(Level.SEVERE, () -> LoggerWrapper.logMessage("Missing mandatory arguments in the request: " + missingArgs));
+        throw new ExtensionException(MessageConstants.MISSING_ARGUMENTS, false, missingArgs);
+      }
+      return true;
+   }
+
+   /**
+   * List of mandatory arguments missing in the request.
+   * @return comma separated list, empty if all mandatory arguments are present.
+   */
+   private String getMissingArguments (AccountRequest targetAccount, boolean isUpdate) {
       StringBuffer missingArgs = new StringBuffer();
       String delimiter = "";
-      boolean isDataValid = true;
-      if(targetAccount.getTargetApplication().getTargetServer().getHostName().isEmpty()) {
-          isDataValid = false;
+      if(targetAccount.application == null || targetAccount.application.hostName.isEmpty()) {
           missingArgs.append("hostname");
           delimiter = ", ";
       }
-      if(targetAccount.getUserName().isEmpty()) {
-          isDataValid = false;
+      if(targetAccount.userName.isEmpty()) {
           missingArgs.append(delimiter);
           missingArgs.append("userName");
           delimiter = ", ";
       }
 
-      if(targetAccount.getPassword().isEmpty()) {
-          isDataValid = false;
+      if(targetAccount.password.isEmpty()) {
           missingArgs.append(delimiter);
           missingArgs.append(" password");
           delimiter = ", ";
       }
       
       if (isUpdate) {
-          if(targetAccount.getOldPassword().isEmpty()) {
-              isDataValid = false;
+          if(targetAccount.oldPassword.isEmpty()) {
               missingArgs.append(delimiter);
               missingArgs.append(" oldPassword");
               delimiter = ", ";
           }
-          if(targetAccount.getOldUserName().isEmpty()) {
-              isDataValid = false;
+          if(targetAccount.oldUserName.isEmpty()) {
               missingArgs.append(delimiter);
               missingArgs.append(" oldUserName");
               delimiter = ", ";
           }
       }
-      if (!isDataValid) {
-        LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Missing mandatory arguments in the request: " + missingArgs.toString()));
-        throw new ExtensionException(MessageConstants.MISSING_ARGUMENTS, false, missingArgs.toString());
-      }
-      return true;
+      return missingArgs.toString();
    }
 
-   private String getDurationLogMessage(String methodName, boolean success, String duration, TargetAccount targetAccount) {
-      StringBuffer durationLog = new StringBuffer("Duration of ");
+   /**
+   * Log the duration of a request, the message is only built if INFO is enabled
+   */
+   private void logDuration(String methodName, boolean success, long methodStartTime, AccountRequest targetAccount) {
+      if (!LOGGER.isLoggable(Level.INFO)) {
+          return;
+      }
+      final long duration = System.currentTimeMillis() - methodStartTime;
+      StringBuilder durationLog = new StringBuilder(160).append("Duration of ");
       if (!success) {
           durationLog.append("failed ");
       }
-      durationLog.append("call to method ");
-      durationLog.append(methodName);
-
-      StringBuffer inputInfo = new StringBuffer();
-      if (targetAccount != null && targetAccount.getUserName() != null && !targetAccount.getUserName().isEmpty() 
-          && targetAccount.getTargetApplication().getTargetServer().getDeviceName() != null && !targetAccount.getTargetApplication().getTargetServer().getDeviceName().isEmpty()
-          && targetAccount.getTargetApplication().getName() != null && !targetAccount.getTargetApplication().getName().isEmpty()) {
-          inputInfo.append (" for username: '").append(targetAccount.getUserName()).append("' on the device: '").append(targetAccount.getTargetApplication().getTargetServer().getDeviceName())
-                   .append("' with applicationName: '").append(targetAccount.getTargetApplication().getName()).append("' ");
+      durationLog.append("call to method ").append(methodName);
+
+      if (targetAccount != null && targetAccount.userName != null && !targetAccount.userName.isEmpty() && targetAccount.application != null
+          && targetAccount.application.deviceName != null && !targetAccount.application.deviceName.isEmpty()
+          && targetAccount.application.name != null && !targetAccount.application.name.isEmpty()) {
+          durationLog.append(" for username: '").append(targetAccount.userName).append("' on the device: '").append(targetAccount.application.deviceName)
+                   .append("' with applicationName: '").append(targetAccount.application.name).append("' ");
       }
 
-      return durationLog.append(inputInfo).append("= ").append(duration).append(" ms.").toString();
+      LOGGER.log(Level.INFO, LoggerWrapper.logMessage(durationLog.append("= ").append(duration).append(" ms.").toString()));
    }
 
 
 
+
    /**
     * Verifies credentials against target device. Stub method should be
     * implemented by Target Connector Developer.
@@ -320,9 +612,10 @@ public class Credentials {
     * credential
     *
     */
-   private void processCredentialVerify (TargetAccount targetAccount) throws ExtensionException {
+   private void processCredentialVerify (AccountRequest targetAccount) throws ExtensionException {
 	   PostgreSQL postgresql= new PostgreSQL(targetAccount);
-	   postgresql.credentialVerify();
+	   throwFailure(SingleFlight.getInstance().run(PhaseMetrics.OPERATION_VERIFY,
+			   postgresql.getFlightKey(PhaseMetrics.OPERATION_VERIFY), postgresql::verify));
    }
 
     /**
@@ -333,9 +626,21 @@ public class Credentials {
     * @throws ExtensionException if there is any problem while update the 
     * credential
     */
-   private void processCredentialUpdate (TargetAccount targetAccount) throws ExtensionException {
+   private void processCredentialUpdate (AccountRequest targetAccount) throws ExtensionException {
 	   PostgreSQL postgresql= new PostgreSQL(targetAccount);
-	   postgresql.credentialUpdate();
+	   throwFailure(SingleFlight.getInstance().run(PhaseMetrics.OPERATION_UPDATE,
+			   postgresql.getFlightKey(PhaseMetrics.OPERATION_UPDATE), postgresql::update));
+   }
+
+   /**
+   * Identical requests running at the same time share the result of the
+   * first one, see SingleFlight.
+   * @throws ExtensionException with the message code of the failure
+   */
+   private void throwFailure (PostgreSQL.Failure failure) throws ExtensionException {
+      if (failure != null) {
+          throw new ExtensionException(failure.getCode(), false, failure.getArgs());
+      }
    }
 
 
@@ -0,0 +1,75 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Settings from the resource file extensions.properties.
+ * The file is read once when the class is loaded. A Java system property
+ * of the same name takes precedence, e.g. for a benchmark. Missing or
+ * invalid values fall back to the default given by the caller.
+ */
+final class ExtensionProperties {
+
+	private static final Logger LOGGER = Logger.getLogger(ExtensionProperties.class.getName());
+
+	private static final String PROPERTY_FILE = "extensions.properties";
+
+	private static final Properties PROPS = new Properties();
+	static {
+		try (InputStream is = ExtensionProperties.class.getClassLoader().getResourceAsStream(PROPERTY_FILE)) {
+			PROPS.load(is);
+		}
+		catch (Exception e) {
+			LOGGER.severe(LoggerWrapper.logMessage("Cannot load properties from '" + PROPERTY_FILE + "'"));
+			LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Exception"), e);
+		}
+	}
+
+	private ExtensionProperties() {
+	}
+
+	static String getString(String key, String defaultValue) {
+		String value = System.getProperty(key, PROPS.getProperty(key));
+		return (value == null || value.trim().isEmpty()) ? defaultValue : value.trim();
+	}
+
+	static int getInt(String key, int defaultValue) {
+		return (int) getLong(key, defaultValue);
+	}
+
+	static long getLong(String key, long defaultValue) {
+		String value = getString(key, null);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e) {
+			LOGGER.warning(LoggerWrapper.logMessage("Invalid value for '" + key + "', using default " + defaultValue));
+			return defaultValue;
+		}
+	}
+
+	static double getDouble(String key, double defaultValue) {
+		String value = getString(key, null);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Double.parseDouble(value);
+		}
+		catch (NumberFormatException e) {
+			LOGGER.warning(LoggerWrapper.logMessage("Invalid value for '" + key + "', using default " + defaultValue));
+			return defaultValue;
+		}
+	}
+
+	static boolean getBoolean(String key, boolean defaultValue) {
+		String value = getString(key, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+}
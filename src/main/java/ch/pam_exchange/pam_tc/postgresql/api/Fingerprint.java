@@ -0,0 +1,47 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/*
+ * Salted SHA-256 fingerprint of one or more values.
+ * Used as a key where secrets must be compared without being stored.
+ * The salt is random per JVM, thus fingerprints are never persisted
+ * and cannot be compared across connector restarts.
+ */
+final class Fingerprint {
+
+	private static final byte[] SALT = new byte[32];
+	static {
+		new SecureRandom().nextBytes(SALT);
+	}
+
+	private Fingerprint() {
+	}
+
+	static String of(String... values) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		md.update(SALT);
+		for (String value : values) {
+			byte[] b = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+			/*
+			 * Length prefix, thus ("ab","c") and ("a","bc") differ
+			 */
+			md.update((byte) (b.length >>> 24));
+			md.update((byte) (b.length >>> 16));
+			md.update((byte) (b.length >>> 8));
+			md.update((byte) b.length);
+			md.update(b);
+		}
+		return Base64.getEncoder().withoutPadding().encodeToString(md.digest());
+	}
+}
@@ -0,0 +1,125 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Verification racing the standby hosts of a cluster, used when the primary
+ * cannot be reached.
+ *
+ * The login is tried on all standby hosts at the same time, the first host
+ * accepting the password answers the verify. The other attempts are not
+ * interrupted, they end with their own timeout and close their connection,
+ * thus an attempt losing the race does not count as a connection failure
+ * in the circuit breaker. The threads are not taken from BatchExecutor, a
+ * batch verify waiting for its own race would block the batch threads.
+ */
+final class HostRace {
+
+	private static final LongAdder RACES = new LongAdder();
+	private static final LongAdder STANDBY_WINS = new LongAdder();
+
+	private static ExecutorService executor = null;
+
+	private HostRace() {
+	}
+
+	/**
+	 * Run the logins at the same time
+	 *
+	 * @param logins one login per host, returning null if verified
+	 * @return null if a host verified the password, otherwise the first
+	 *         authentication failure, or the failure of the last host if
+	 *         no host answered the login
+	 */
+	static PostgreSQL.Failure first(List<Callable<PostgreSQL.Failure>> logins) throws InterruptedException {
+		RACES.increment();
+		final CompletionService<PostgreSQL.Failure> race = new ExecutorCompletionService<>(getExecutor());
+		final Future<?>[] futures = new Future<?>[logins.size()];
+		int running = 0;
+		try {
+			for (Callable<PostgreSQL.Failure> login : logins) {
+				futures[running++] = race.submit(login);
+			}
+		}
+		catch (RejectedExecutionException e) {
+			/* undeployed */
+			return new PostgreSQL.Failure(PostgreSQLMessageConstants.ERR_EXCEPTION);
+		}
+
+		PostgreSQL.Failure failure = null;
+		PostgreSQL.Failure authentication = null;
+		try {
+			for (int i = 0; i < running; i++) {
+				try {
+					failure = race.take().get();
+				}
+				catch (ExecutionException e) {
+					failure = new PostgreSQL.Failure(PostgreSQLMessageConstants.ERR_EXCEPTION);
+				}
+				if (failure == null) {
+					STANDBY_WINS.increment();
+					return null;
+				}
+				/*
+				 * A host rejecting the login tells more than a host not
+				 * reached, keep waiting, a lagging standby may accept it
+				 */
+				if (authentication == null && isAuthentication(failure))
+					authentication = failure;
+			}
+			return authentication != null ? authentication : failure;
+		}
+		finally {
+			for (int i = 0; i < running; i++) {
+				futures[i].cancel(false);
+			}
+		}
+	}
+
+	private static boolean isAuthentication(PostgreSQL.Failure failure) {
+		final String code = failure.getCode();
+		return PostgreSQLMessageConstants.ERR_PASSWORD.equals(code)
+				|| PostgreSQLMessageConstants.ERR_USER_NOT_FOUND.equals(code)
+				|| PostgreSQLMessageConstants.ERR_LOGIN_NOT_PERMITTED.equals(code);
+	}
+
+	static long getRaces() {
+		return RACES.sum();
+	}
+
+	static long getStandbyWins() {
+		return STANDBY_WINS.sum();
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			final AtomicInteger counter = new AtomicInteger();
+			executor = Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "postgresql-race-" + counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return executor;
+	}
+
+	/*
+	 * Stop the threads. Called when the connector is undeployed.
+	 */
+	static synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Latency histogram with fixed buckets. Recording is lock free and does
+ * not allocate.
+ */
+final class LatencyHistogram {
+
+	/*
+	 * Upper bounds of the buckets in seconds, a last bucket catches the rest
+	 */
+	static final double[] BUCKETS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+	private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+	static {
+		for (int i = 0; i < BUCKETS.length; i++) {
+			BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1e9);
+		}
+	}
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+	private final LongAdder sumNanos = new LongAdder();
+
+	LatencyHistogram() {
+		for (int i = 0; i < this.counts.length; i++) {
+			this.counts[i] = new LongAdder();
+		}
+	}
+
+	void record(long nanos) {
+		int i = 0;
+		while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i])
+			i++;
+		this.counts[i].increment();
+		this.sumNanos.add(nanos);
+	}
+
+	/*
+	 * Count per bucket, not cumulative. The last entry is the +Inf bucket.
+	 */
+	long[] getCounts() {
+		long[] result = new long[this.counts.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.counts[i].sum();
+		}
+		return result;
+	}
+
+	double getSumSeconds() {
+		return this.sumNanos.sum() / 1e9;
+	}
+}
@@ -0,0 +1,128 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Size bounded cache with least recently used eviction and an optional
+ * time to live for the entries. Hits, misses and evictions are counted.
+ */
+final class LruCache<K, V> {
+
+	private static final class Entry<V> {
+		private final V value;
+		private final long expiresAt;
+
+		private Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final int maxEntries;
+	private final long ttl;
+	private final LinkedHashMap<K, Entry<V>> map;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	/**
+	 * @param maxEntries maximum number of entries
+	 * @param ttl        time to live in milliseconds, 0 for no expiry
+	 */
+	LruCache(int maxEntries, long ttl) {
+		this.maxEntries = Math.max(1, maxEntries);
+		this.ttl = ttl;
+		this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if (size() > LruCache.this.maxEntries) {
+					LruCache.this.evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	V get(K key) {
+		final long now = System.currentTimeMillis();
+		synchronized (this.map) {
+			Entry<V> entry = this.map.get(key);
+			if (entry != null) {
+				if (entry.expiresAt == 0 || entry.expiresAt > now) {
+					this.hits.increment();
+					return entry.value;
+				}
+				this.map.remove(key);
+				this.expirations.increment();
+			}
+		}
+		this.misses.increment();
+		return null;
+	}
+
+	void put(K key, V value) {
+		final long expiresAt = this.ttl > 0 ? System.currentTimeMillis() + this.ttl : 0;
+		synchronized (this.map) {
+			this.map.put(key, new Entry<>(value, expiresAt));
+		}
+	}
+
+	void remove(K key) {
+		synchronized (this.map) {
+			this.map.remove(key);
+		}
+	}
+
+	/*
+	 * Remove expired entries
+	 */
+	void purge() {
+		final long now = System.currentTimeMillis();
+		synchronized (this.map) {
+			Iterator<Entry<V>> it = this.map.values().iterator();
+			while (it.hasNext()) {
+				Entry<V> entry = it.next();
+				if (entry.expiresAt != 0 && entry.expiresAt <= now) {
+					it.remove();
+					this.expirations.increment();
+				}
+			}
+		}
+	}
+
+	void clear() {
+		synchronized (this.map) {
+			this.map.clear();
+		}
+	}
+
+	int size() {
+		synchronized (this.map) {
+			return this.map.size();
+		}
+	}
+
+	long getHits() {
+		return this.hits.sum();
+	}
+
+	long getMisses() {
+		return this.misses.sum();
+	}
+
+	long getEvictions() {
+		return this.evictions.sum();
+	}
+
+	long getExpirations() {
+		return this.expirations.sum();
+	}
+}
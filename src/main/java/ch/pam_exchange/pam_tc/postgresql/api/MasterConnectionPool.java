@@ -0,0 +1,444 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/*
+ * Pool of connections logged in with a master account.
+ *
+ * Connections are kept per (host, port, standby hosts, masterDatabase,
+ * masterUsername, useTLS). The number of connections per key is bounded, idle
+ * connections are closed after postgresql.pool.idleTimeout and every
+ * connection taken from the pool is validated before it is used. With standby
+ * hosts the validation also checks that the server is still the primary, a
+ * connection kept over a failover is not used. The master password is not stored, only a
+ * fingerprint of it. When the fingerprint changes, all idle connections for
+ * the key are closed.
+ */
+final class MasterConnectionPool implements MasterConnectionPoolMXBean {
+
+	private static final Logger LOGGER = Logger.getLogger(MasterConnectionPool.class.getName());
+
+	static final String OBJECT_NAME = "ch.pam_exchange.pam_tc.postgresql:type=MasterConnectionPool";
+
+	private static final boolean ENABLED = ExtensionProperties.getBoolean("postgresql.pool.enabled", true);
+	private static final int MAX_PER_KEY = Math.max(1, ExtensionProperties.getInt("postgresql.pool.maxPerKey", 4));
+	private static final long MAX_WAIT = ExtensionProperties.getLong("postgresql.pool.maxWait", 5000);
+	private static final long IDLE_TIMEOUT = ExtensionProperties.getLong("postgresql.pool.idleTimeout", 300000);
+	private static final int VALIDATION_TIMEOUT = ExtensionProperties.getInt("postgresql.pool.validationTimeout", 2);
+	private static final String VALIDATION_QUERY = "SELECT 1";
+	private static final String PRIMARY_VALIDATION_QUERY = "SELECT pg_is_in_recovery()";
+
+	private static final MasterConnectionPool INSTANCE = new MasterConnectionPool();
+
+	static MasterConnectionPool getInstance() {
+		return INSTANCE;
+	}
+
+	/*
+	 * Opens a new connection when the pool has no idle connection
+	 */
+	interface ConnectionFactory {
+		Connection connect() throws SQLException;
+	}
+
+	static final class Key {
+		private final String hostname;
+		private final int port;
+		private final String database;
+		private final String username;
+		private final boolean useTLS;
+		/*
+		 * host:port of the standby hosts, comma separated, empty without
+		 */
+		private final String standbyHosts;
+
+		Key(String hostname, int port, String database, String username, boolean useTLS, String standbyHosts) {
+			this.hostname = hostname;
+			this.port = port;
+			this.database = database;
+			this.username = username;
+			this.useTLS = useTLS;
+			this.standbyHosts = standbyHosts;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return port == k.port && useTLS == k.useTLS && Objects.equals(hostname, k.hostname)
+					&& Objects.equals(database, k.database) && Objects.equals(username, k.username)
+					&& Objects.equals(standbyHosts, k.standbyHosts);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(hostname, port, database, username, useTLS, standbyHosts);
+		}
+
+		@Override
+		public String toString() {
+			return username + "@" + hostname + ":" + port + (standbyHosts.isEmpty() ? "" : "," + standbyHosts) + "/" + database + (useTLS ? " (TLS)" : "");
+		}
+	}
+
+	/*
+	 * A connection taken from the pool. Must be given back with release().
+	 */
+	static final class Lease {
+		private final Partition partition;
+		private final Connection connection;
+		private final String passwordFingerprint;
+		private boolean released = false;
+
+		private Lease(Partition partition, Connection connection, String passwordFingerprint) {
+			this.partition = partition;
+			this.connection = connection;
+			this.passwordFingerprint = passwordFingerprint;
+		}
+
+		Connection getConnection() {
+			return this.connection;
+		}
+	}
+
+	private static final class Idle {
+		private final Connection connection;
+		private final long since;
+
+		private Idle(Connection connection) {
+			this.connection = connection;
+			this.since = System.currentTimeMillis();
+		}
+	}
+
+	private static final class Partition {
+		private final Key key;
+		private final Semaphore permits = new Semaphore(MAX_PER_KEY, true);
+		private final Deque<Idle> idle = new ArrayDeque<>();
+		private String passwordFingerprint = null;
+
+		private Partition(Key key) {
+			this.key = key;
+		}
+	}
+
+	private final Map<Key, Partition> partitions = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder validationFailures = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder borrowNanos = new LongAdder();
+	private final AtomicLong maxBorrowNanos = new AtomicLong();
+
+	private ScheduledExecutorService evictor = null;
+
+	private MasterConnectionPool() {
+	}
+
+	/**
+	 * Get a connection for the key. An idle connection is used if one is
+	 * available and passes validation, otherwise a new connection is opened.
+	 *
+	 * @param key      pool key of the master account
+	 * @param password master password, only used to detect password changes
+	 * @param factory  opens a new connection
+	 * @return a lease holding the connection
+	 * @throws SQLException if no connection can be opened
+	 */
+	Lease borrow(Key key, String password, ConnectionFactory factory) throws SQLException {
+		final long start = System.nanoTime();
+		final String fingerprint = Fingerprint.of(password);
+
+		if (!ENABLED) {
+			Lease lease = new Lease(null, factory.connect(), fingerprint);
+			this.recordBorrow(start, false);
+			return lease;
+		}
+
+		Partition partition = this.partitions.computeIfAbsent(key, Partition::new);
+		try {
+			if (!partition.permits.tryAcquire(MAX_WAIT, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timeout waiting for a master connection to " + key);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a master connection to " + key);
+		}
+
+		try {
+			Idle candidate;
+			while ((candidate = this.takeIdle(partition, fingerprint)) != null) {
+				if (this.isValid(candidate.connection, !key.standbyHosts.isEmpty())) {
+					Lease lease = new Lease(partition, candidate.connection, fingerprint);
+					this.recordBorrow(start, true);
+					return lease;
+				}
+				this.validationFailures.increment();
+				LOGGER.fine(() -> LoggerWrapper.logMessage("Pooled connection for " + key + " failed validation"));
+				closeQuietly(candidate.connection);
+			}
+
+			Lease lease = new Lease(partition, factory.connect(), fingerprint);
+			this.recordBorrow(start, false);
+			return lease;
+		}
+		catch (SQLException | RuntimeException e) {
+			partition.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Give a connection back to the pool.
+	 *
+	 * @param lease    the lease from borrow()
+	 * @param reusable false if the connection must be closed
+	 */
+	void release(Lease lease, boolean reusable) {
+		if (lease == null || lease.released)
+			return;
+		lease.released = true;
+
+		if (lease.partition == null) {
+			closeQuietly(lease.connection);
+			return;
+		}
+
+		try {
+			if (reusable) {
+				try {
+					if (!lease.connection.getAutoCommit()) {
+						lease.connection.rollback();
+					}
+				}
+				catch (SQLException e) {
+					reusable = false;
+				}
+			}
+
+			boolean pooled = false;
+			if (reusable) {
+				synchronized (lease.partition) {
+					if (lease.passwordFingerprint.equals(lease.partition.passwordFingerprint)) {
+						lease.partition.idle.addFirst(new Idle(lease.connection));
+						pooled = true;
+					}
+				}
+			}
+			if (!pooled) {
+				closeQuietly(lease.connection);
+			}
+		}
+		finally {
+			lease.partition.permits.release();
+		}
+		this.startEvictor();
+	}
+
+	/*
+	 * Most recently used connection first. If the master password changed,
+	 * all idle connections of the partition are closed.
+	 */
+	private Idle takeIdle(Partition partition, String fingerprint) {
+		Deque<Idle> stale = null;
+		Idle result = null;
+		synchronized (partition) {
+			if (!fingerprint.equals(partition.passwordFingerprint)) {
+				if (partition.passwordFingerprint != null) {
+					LOGGER.info(() -> LoggerWrapper.logMessage("Master password changed for " + partition.key + ", closing idle connections"));
+				}
+				partition.passwordFingerprint = fingerprint;
+				stale = new ArrayDeque<>(partition.idle);
+				partition.idle.clear();
+			}
+			else {
+				result = partition.idle.pollFirst();
+			}
+		}
+		if (stale != null) {
+			for (Idle i : stale) {
+				this.evictions.increment();
+				closeQuietly(i.connection);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * With standby hosts the connection must still be to the primary, the
+	 * driver chose it when connecting (targetServerType primary)
+	 */
+	private boolean isValid(Connection conn, boolean primary) {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.setQueryTimeout(VALIDATION_TIMEOUT);
+			if (!primary) {
+				stmt.execute(VALIDATION_QUERY);
+				return true;
+			}
+			try (ResultSet rs = stmt.executeQuery(PRIMARY_VALIDATION_QUERY)) {
+				return rs.next() && !rs.getBoolean(1);
+			}
+		}
+		catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void recordBorrow(long start, boolean hit) {
+		final long elapsed = System.nanoTime() - start;
+		if (hit)
+			this.hits.increment();
+		else
+			this.misses.increment();
+		this.borrowNanos.add(elapsed);
+		this.maxBorrowNanos.accumulateAndGet(elapsed, Math::max);
+	}
+
+	/*
+	 * Close idle connections not used within the idle timeout
+	 */
+	void evictIdle() {
+		final long limit = System.currentTimeMillis() - IDLE_TIMEOUT;
+		for (Partition partition : this.partitions.values()) {
+			Deque<Idle> expired = new ArrayDeque<>();
+			synchronized (partition) {
+				Iterator<Idle> it = partition.idle.iterator();
+				while (it.hasNext()) {
+					Idle i = it.next();
+					if (i.since < limit) {
+						it.remove();
+						expired.add(i);
+					}
+				}
+			}
+			for (Idle i : expired) {
+				this.evictions.increment();
+				closeQuietly(i.connection);
+			}
+			if (!expired.isEmpty()) {
+				LOGGER.fine(() -> LoggerWrapper.logMessage("Evicted " + expired.size() + " idle connection(s) for " + partition.key));
+			}
+		}
+	}
+
+	private synchronized void startEvictor() {
+		if (this.evictor != null)
+			return;
+		this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "postgresql-pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		final long period = Math.max(1000, IDLE_TIMEOUT / 2);
+		this.evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * Close all idle connections and stop the evictor. Called when the
+	 * connector is undeployed.
+	 */
+	synchronized void close() {
+		if (this.evictor != null) {
+			this.evictor.shutdownNow();
+			this.evictor = null;
+		}
+		for (Partition partition : this.partitions.values()) {
+			synchronized (partition) {
+				for (Idle i : partition.idle) {
+					closeQuietly(i.connection);
+				}
+				partition.idle.clear();
+			}
+		}
+		this.partitions.clear();
+	}
+
+	private static void closeQuietly(Connection conn) {
+		try { conn.close(); } catch (Exception e) {}
+	}
+
+	/*
+	 * MXBean attributes
+	 */
+	@Override
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	@Override
+	public double getHitRate() {
+		final long h = this.hits.sum();
+		final long total = h + this.misses.sum();
+		return total == 0 ? 0.0 : (double) h / total;
+	}
+
+	@Override
+	public long getValidationFailures() {
+		return this.validationFailures.sum();
+	}
+
+	@Override
+	public long getEvictions() {
+		return this.evictions.sum();
+	}
+
+	@Override
+	public double getAverageBorrowMillis() {
+		final long total = this.hits.sum() + this.misses.sum();
+		return total == 0 ? 0.0 : this.borrowNanos.sum() / 1e6 / total;
+	}
+
+	@Override
+	public double getMaxBorrowMillis() {
+		return this.maxBorrowNanos.get() / 1e6;
+	}
+
+	@Override
+	public int getIdleConnections() {
+		int count = 0;
+		for (Partition partition : this.partitions.values()) {
+			synchronized (partition) {
+				count += partition.idle.size();
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int getActiveConnections() {
+		int count = 0;
+		for (Partition partition : this.partitions.values()) {
+			count += MAX_PER_KEY - partition.permits.availablePermits();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,25 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+/*
+ * Statistics of the master connection pool, published with JMX
+ */
+public interface MasterConnectionPoolMXBean {
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRate();
+
+	long getValidationFailures();
+
+	long getEvictions();
+
+	double getAverageBorrowMillis();
+
+	double getMaxBorrowMillis();
+
+	int getIdleConnections();
+
+	int getActiveConnections();
+}
@@ -0,0 +1,90 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Response;
+
+/*
+ * Connector metrics in Prometheus text format.
+ * URL mapping is /metrics.
+ */
+@Path("metrics")
+public class Metrics {
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	@GET
+	@Produces(CONTENT_TYPE)
+	public Response getMetrics() {
+		StringBuilder sb = new StringBuilder(8192);
+
+		PhaseMetrics.writePrometheus(sb);
+
+		MasterConnectionPoolMXBean pool = MasterConnectionPool.getInstance();
+		counter(sb, "postgresql_connector_pool_hits_total", "Master connections taken from the pool.", pool.getHits());
+		counter(sb, "postgresql_connector_pool_misses_total", "Master connections opened because none was idle.", pool.getMisses());
+		counter(sb, "postgresql_connector_pool_validation_failures_total", "Pooled master connections failing validation.", pool.getValidationFailures());
+		counter(sb, "postgresql_connector_pool_evictions_total", "Pooled master connections closed.", pool.getEvictions());
+		gauge(sb, "postgresql_connector_pool_idle_connections", "Idle master connections.", pool.getIdleConnections());
+		gauge(sb, "postgresql_connector_pool_active_connections", "Master connections in use.", pool.getActiveConnections());
+
+		CircuitBreakerMXBean breaker = CircuitBreaker.getInstance();
+		gauge(sb, "postgresql_connector_breaker_open_circuits", "Servers currently failing fast.", breaker.getOpenCircuits());
+		counter(sb, "postgresql_connector_breaker_rejected_total", "Requests rejected by an open circuit.", breaker.getRejectedRequests());
+
+		VerificationCacheMXBean verifyCache = VerificationCache.getInstance();
+		gauge(sb, "postgresql_connector_verifycache_size", "Entries in the verification cache.", verifyCache.getSize());
+		counter(sb, "postgresql_connector_verifycache_hits_total", "Verification cache hits.", verifyCache.getHits());
+		counter(sb, "postgresql_connector_verifycache_misses_total", "Verification cache misses.", verifyCache.getMisses());
+
+		ScramKeyCacheMXBean scram = ScramKeyCache.getInstance();
+		gauge(sb, "postgresql_connector_scramcache_size", "Entries in the SCRAM key cache.", scram.getSize());
+		counter(sb, "postgresql_connector_scramcache_hits_total", "SCRAM key cache hits.", scram.getHits());
+		counter(sb, "postgresql_connector_scramcache_misses_total", "SCRAM key cache misses.", scram.getMisses());
+
+		TlsContextsMXBean tls = TlsContexts.getInstance();
+		counter(sb, "postgresql_connector_tls_full_handshakes_total", "TLS handshakes with certificate exchange.", tls.getFullHandshakes());
+		counter(sb, "postgresql_connector_tls_resumed_handshakes_total", "TLS handshakes resuming a cached session.", tls.getResumedHandshakes());
+		counter(sb, "postgresql_connector_tls_failed_handshakes_total", "TLS handshakes failed.", tls.getFailedHandshakes());
+
+		SingleFlightMXBean flights = SingleFlight.getInstance();
+		gauge(sb, "postgresql_connector_singleflight_in_flight", "Distinct credential requests running.", flights.getInFlight());
+		counter(sb, "postgresql_connector_singleflight_coalesced_verify_total", "Verify requests answered by an identical running request.", flights.getCoalescedVerifies());
+		counter(sb, "postgresql_connector_singleflight_coalesced_update_total", "Update requests answered by an identical running request.", flights.getCoalescedUpdates());
+
+		RoleLocksMXBean roleLocks = RoleLocks.getInstance();
+		counter(sb, "postgresql_connector_rolelock_contended_total", "Password updates waiting for another update of the same role.", roleLocks.getContended());
+		counter(sb, "postgresql_connector_rolelock_timeouts_total", "Password updates not started within postgresql.rolelock.maxWait.", roleLocks.getTimeouts());
+
+		counter(sb, "postgresql_connector_hostrace_total", "Verifies raced across the standby hosts, the primary not reachable.", HostRace.getRaces());
+		counter(sb, "postgresql_connector_hostrace_standby_wins_total", "Verifies answered by a standby host.", HostRace.getStandbyWins());
+
+		counter(sb, "postgresql_connector_log_dropped_total", "Log records dropped because the log queue was full.", AsyncLogHandler.getDropped());
+
+		if (Warmup.getSteadyStateNanos() >= 0) {
+			gauge(sb, "postgresql_connector_warmup_steady_state_seconds", "Time from deployment to the end of the warm-up.", Warmup.getSteadyStateNanos() / 1e9);
+			gauge(sb, "postgresql_connector_warmup_p99_seconds", "p99 latency of the request path at the end of the warm-up.", Warmup.getSteadyP99Nanos() / 1e9);
+		}
+
+		return Response.ok(sb.toString(), CONTENT_TYPE).build();
+	}
+
+	private static void counter(StringBuilder sb, String name, String help, long value) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" counter\n");
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void gauge(StringBuilder sb, String name, String help, long value) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" gauge\n");
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void gauge(StringBuilder sb, String name, String help, double value) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" gauge\n");
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+}
@@ -0,0 +1,121 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Latency per phase of the credential operations.
+ *
+ * A histogram is kept per operation (verify, update, roles), phase, host:port and
+ * outcome (ok, error). The phases are
+ *   parse   - JSON request parsing and validation
+ *   config  - extraction of the configuration from the request
+ *   connect - TCP connect
+ *   tls     - TLS handshake (probe only)
+ *   auth    - authentication (probe only)
+ *   login   - TLS handshake, authentication and session setup (JDBC)
+ *   hash    - SCRAM verifier of the new password (password encryption scram-sha-256)
+ *   lock    - wait for another update of the same role (update only)
+ *   alter   - ALTER USER
+ *   commit  - commit of the ALTER USER
+ *   query   - query of the roles until the first rows are fetched (roles only)
+ */
+final class PhaseMetrics {
+
+	static final String OPERATION_VERIFY = "verify";
+	static final String OPERATION_UPDATE = "update";
+	static final String OPERATION_ROLES = "roles";
+
+	static final String PHASE_PARSE = "parse";
+	static final String PHASE_CONFIG = "config";
+	static final String PHASE_CONNECT = "connect";
+	static final String PHASE_TLS = "tls";
+	static final String PHASE_AUTH = "auth";
+	static final String PHASE_LOGIN = "login";
+	static final String PHASE_HASH = "hash";
+	static final String PHASE_LOCK = "lock";
+	static final String PHASE_ALTER = "alter";
+	static final String PHASE_COMMIT = "commit";
+	static final String PHASE_QUERY = "query";
+
+	private static final String METRIC = "postgresql_connector_phase_seconds";
+
+	private static final class Key implements Comparable<Key> {
+		private final String operation;
+		private final String phase;
+		private final String host;
+		private final boolean success;
+
+		private Key(String operation, String phase, String host, boolean success) {
+			this.operation = operation;
+			this.phase = phase;
+			this.host = host == null ? "" : host;
+			this.success = success;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return success == k.success && operation.equals(k.operation) && phase.equals(k.phase) && host.equals(k.host);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(operation, phase, host, success);
+		}
+
+		@Override
+		public int compareTo(Key k) {
+			int c = operation.compareTo(k.operation);
+			if (c == 0)
+				c = phase.compareTo(k.phase);
+			if (c == 0)
+				c = host.compareTo(k.host);
+			if (c == 0)
+				c = Boolean.compare(success, k.success);
+			return c;
+		}
+	}
+
+	private static final Map<Key, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+	private PhaseMetrics() {
+	}
+
+	static void record(String operation, String phase, String host, boolean success, long nanos) {
+		if (nanos < 0)
+			return;
+		HISTOGRAMS.computeIfAbsent(new Key(operation, phase, host, success), k -> new LatencyHistogram()).record(nanos);
+	}
+
+	/*
+	 * Histograms in Prometheus text format
+	 */
+	static void writePrometheus(StringBuilder sb) {
+		sb.append("# HELP ").append(METRIC).append(" Latency of the phases of the credential operations.\n");
+		sb.append("# TYPE ").append(METRIC).append(" histogram\n");
+
+		for (Map.Entry<Key, LatencyHistogram> e : new TreeMap<>(HISTOGRAMS).entrySet()) {
+			final Key key = e.getKey();
+			final String labels = "operation=\"" + key.operation + "\",phase=\"" + key.phase + "\",host=\"" + escape(key.host)
+					+ "\",outcome=\"" + (key.success ? "ok" : "error") + "\"";
+			final long[] counts = e.getValue().getCounts();
+			long cumulative = 0;
+			for (int i = 0; i < counts.length; i++) {
+				cumulative += counts[i];
+				final String le = i < LatencyHistogram.BUCKETS.length ? Double.toString(LatencyHistogram.BUCKETS[i]) : "+Inf";
+				sb.append(METRIC).append("_bucket{").append(labels).append(",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+			}
+			sb.append(METRIC).append("_sum{").append(labels).append("} ").append(e.getValue().getSumSeconds()).append('\n');
+			sb.append(METRIC).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+		}
+	}
+
+	static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
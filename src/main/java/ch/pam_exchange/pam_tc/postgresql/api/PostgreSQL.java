@@ -2,15 +2,23 @@ package ch.pam_exchange.pam_tc.postgresql.api;
 
 import com.ca.pam.extensions.core.model.LoggerWrapper;
 
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import com.ca.pam.extensions.core.api.exception.ExtensionException;
 import com.ca.pam.extensions.core.TargetAccount;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
@@ -19,159 +27,159 @@ public class PostgreSQL {
 	private static final Logger LOGGER = Logger.getLogger(PostgreSQL.class.getName());
 	private static final boolean EXTENDED_DEBUG = false;
 
-	private static final String PROPERTY_FILE = "extensions.properties";
 	private static final String PROPERTY_POSTGRESQL_LOGLEVEL = "postgresql.driver.loglevel";
 	
-	private static String POSTGRESQL_LOGLEVEL= "OFF";
+	private static final String PROPERTY_VERIFY_MODE = "postgresql.verify.mode";
+	private static final String PROPERTY_PASSWORD_ENCRYPTION = "postgresql.password.encryption";
+	private static final String PROPERTY_SCRAM_ITERATIONS = "postgresql.password.scramIterations";
+	private static final String PROPERTY_VERIFY_STANDBYS = "postgresql.verify.standbys";
+	private static final String PROPERTY_STATEMENT_TIMEOUT = "postgresql.update.statementTimeout";
+	
+	private static final String POSTGRESQL_LOGLEVEL= ExtensionProperties.getString(PROPERTY_POSTGRESQL_LOGLEVEL, "OFF");
+	private static final boolean VERIFY_PROBE= "probe".equalsIgnoreCase(ExtensionProperties.getString(PROPERTY_VERIFY_MODE, "jdbc"));
+	private static final boolean ENCRYPT_SCRAM= "scram-sha-256".equalsIgnoreCase(ExtensionProperties.getString(PROPERTY_PASSWORD_ENCRYPTION, "plaintext").trim());
+	private static final int SCRAM_ITERATIONS= Math.max(1, ExtensionProperties.getInt(PROPERTY_SCRAM_ITERATIONS, Scram.DEFAULT_ITERATIONS));
+	private static final boolean VERIFY_STANDBYS= ExtensionProperties.getBoolean(PROPERTY_VERIFY_STANDBYS, true);
+	private static final long STATEMENT_TIMEOUT= ExtensionProperties.getLong(PROPERTY_STATEMENT_TIMEOUT, 10000);
 	static {
 		try {
-			Properties props= new Properties();
-			props.load(PostgreSQL.class.getClassLoader().getResourceAsStream(PROPERTY_FILE));
-			if (props.getProperty(PostgreSQL.PROPERTY_POSTGRESQL_LOGLEVEL)!=null) {
-				POSTGRESQL_LOGLEVEL= props.getProperty(PostgreSQL.PROPERTY_POSTGRESQL_LOGLEVEL);
-			}
 			Class.forName("org.postgresql.Driver");
 		}
 		catch (Exception e) {
-			LOGGER.severe(LoggerWrapper.logMessage("Cannot load properties from '"+PROPERTY_FILE+"'"));
-			LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Exception"), e);
+			LOGGER.severe(() -> LoggerWrapper.logMessage("Cannot load PostgreSQL driver"));
+			LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Exception"));
 		}
 	}
 	
 	/**
 	 * Constants
 	 */
-	private static final int DEFAULT_PORT = 5432;
-	private static final long DEFAULT_CONNECT_TIMEOUT = 5000;
-	private static final long DEFAULT_LOGIN_TIMEOUT = 5000;
 	private static final String CHANGE_OTHER = "other";
 
-	private static final String FIELD_PORT = "port";
-	private static final String FIELD_CONNECTTIMEOUT = "connectionTimeout";
-	private static final String FIELD_LOGINTIMEOUT = "loginTimeout";
-	private static final String FIELD_DATABASE = "database";
-	private static final String FIELD_USETLS = "useTLS";
-	private static final String FIELD_CHANGEPROCESS = "changeProcess";
-	private static final String FIELD_MASTERACCOUNT = "otherAccount";
-
 	/**
 	 * Instance variables used in the processCredentialsVerify and
 	 * processCredentialsUpdate
 	 */
 	private String hostname = "";
-	private int port = DEFAULT_PORT;
-	private long connectTimeout = DEFAULT_CONNECT_TIMEOUT;
-	private long loginTimeout = DEFAULT_LOGIN_TIMEOUT;
+	private int port = TargetConfig.DEFAULT_PORT;
+	private long connectTimeout = TargetConfig.DEFAULT_CONNECT_TIMEOUT;
+	private long loginTimeout = TargetConfig.DEFAULT_LOGIN_TIMEOUT;
 	private String database = "";
 	private boolean useTLS = false;
+	private String[] standbyHostnames = new String[0];
+	private int[] standbyPorts = new int[0];
 
 	private String username = "";
 	private String oldPassword = "";
 	private String newPassword = "";
+	private String passwordVerifier = null;
 	private boolean useMaster = true;
-	private TargetAccount masterAccount = null;
 	private String masterUsername = "";
 	private String masterPassword = "";
 	private String masterDatabase = "";
 
+	/*
+	 * Operation and time spent in the constructor, for the phase metrics
+	 */
+	private String operation = PhaseMetrics.OPERATION_VERIFY;
+	private long configNanos = -1;
+
 	/*
 	 * Constructor
 	 */
 	public PostgreSQL(TargetAccount targetAccount) {
+		this(AccountRequest.of(targetAccount));
+	}
 
-		LOGGER.fine(LoggerWrapper.logMessage("postgresqlLogLevel= "+PostgreSQL.POSTGRESQL_LOGLEVEL));
+	PostgreSQL(AccountRequest request) {
+
+		final long configStart = System.nanoTime();
+		LOGGER.fine(() -> LoggerWrapper.logMessage("postgresqlLogLevel= "+PostgreSQL.POSTGRESQL_LOGLEVEL));
 		
 		/* 
-		 * Server attributes
-		 */
-		this.hostname = targetAccount.getTargetApplication().getTargetServer().getHostName();
-		LOGGER.fine(LoggerWrapper.logMessage("hostname= " + this.hostname));
-
-		/*
-		 *  Application attributes
+		 * Server and application attributes, parsed once per application
 		 */
-		try {
-			this.port = Integer.parseUnsignedInt(targetAccount.getTargetApplication().getExtendedAttribute(FIELD_PORT));
-		} 
-		catch (Exception e) {
-			LOGGER.warning(LoggerWrapper.logMessage("Using default port"));
-			this.port = DEFAULT_PORT;
-		}
-		LOGGER.fine(LoggerWrapper.logMessage(FIELD_PORT + "= " + Integer.toString(this.port)));
-
-		try {
-			this.connectTimeout = Long.parseUnsignedLong(targetAccount.getTargetApplication().getExtendedAttribute(FIELD_CONNECTTIMEOUT));
-		} 
-		catch (Exception e) {
-			LOGGER.warning(LoggerWrapper.logMessage("Using default connectTimeout"));
-			this.connectTimeout = DEFAULT_CONNECT_TIMEOUT;
-		}
-		LOGGER.fine(LoggerWrapper.logMessage(FIELD_CONNECTTIMEOUT + "= " +Long.toString(this.connectTimeout)));
-
-		try {
-			this.loginTimeout = Long.parseUnsignedLong(targetAccount.getTargetApplication().getExtendedAttribute(FIELD_LOGINTIMEOUT));
-		} 
-		catch (Exception e) {
-			LOGGER.warning(LoggerWrapper.logMessage("Using default loginTimeout"));
-			this.loginTimeout = DEFAULT_LOGIN_TIMEOUT;
-		}
-		LOGGER.fine(LoggerWrapper.logMessage(FIELD_LOGINTIMEOUT + "= " + Long.toString(this.loginTimeout)));
-
-		this.database = targetAccount.getTargetApplication().getExtendedAttribute(FIELD_DATABASE);
-		LOGGER.fine(LoggerWrapper.logMessage(FIELD_DATABASE + "= " + this.database));
-
-		this.useTLS = "true".equals(targetAccount.getTargetApplication().getExtendedAttribute(FIELD_USETLS));
-		LOGGER.fine(LoggerWrapper.logMessage(FIELD_USETLS + "= " + this.useTLS));
+		final TargetConfig config = TargetConfig.of(request.application);
+		this.hostname = config.hostname;
+		this.port = config.port;
+		this.connectTimeout = config.connectTimeout;
+		this.loginTimeout = config.loginTimeout;
+		this.database = config.database;
+		this.useTLS = config.useTLS;
+		this.standbyHostnames = config.standbyHostnames;
+		this.standbyPorts = config.standbyPorts;
 
 		/* 
 		 * Account attributes
 		 */
-		this.username = targetAccount.getUserName();
-		LOGGER.fine(LoggerWrapper.logMessage("username= " + this.username));
+		this.username = request.userName;
+		LOGGER.fine(() -> LoggerWrapper.logMessage("username= " + this.username));
 
-		this.newPassword = targetAccount.getPassword();
+		this.newPassword = request.password;
 		if (EXTENDED_DEBUG)
-			LOGGER.fine(LoggerWrapper.logMessage("newPassword= " + this.newPassword));
+			LOGGER.fine(() -> LoggerWrapper.logMessage("newPassword= " + this.newPassword));
 
-		this.oldPassword = targetAccount.getOldPassword();
+		this.oldPassword = request.oldPassword;
 		if (this.oldPassword == null || this.oldPassword.isEmpty()) {
-			LOGGER.fine(LoggerWrapper.logMessage("oldPassword is empty, set oldPassword to newPassword"));
+			LOGGER.fine(() -> LoggerWrapper.logMessage("oldPassword is empty, set oldPassword to newPassword"));
 			this.oldPassword = this.newPassword;
 		}
 		if (EXTENDED_DEBUG)
-			LOGGER.fine(LoggerWrapper.logMessage("oldPassword= " + this.oldPassword));
+			LOGGER.fine(() -> LoggerWrapper.logMessage("oldPassword= " + this.oldPassword));
 
-		this.useMaster = CHANGE_OTHER.equals(targetAccount.getExtendedAttribute(FIELD_CHANGEPROCESS));
+		this.useMaster = CHANGE_OTHER.equals(request.changeProcess);
 		if (this.useMaster) {
-			this.masterAccount = targetAccount.getMasterAccount(FIELD_MASTERACCOUNT).getAsTargetAccount();
-			if (this.masterAccount == null) {
-				LOGGER.fine(LoggerWrapper.logMessage("No master account"));
+			final AccountRequest masterAccount = request.master;
+			if (masterAccount == null) {
+				LOGGER.fine(() -> LoggerWrapper.logMessage("No master account"));
 				this.useMaster = false;
 			} 
 			else {
-				this.masterUsername = masterAccount.getUserName();
+				this.masterUsername = masterAccount.userName;
 				if (this.masterUsername == null || this.masterUsername.isEmpty()) {
-					LOGGER.severe(LoggerWrapper.logMessage("masterUsername is empty"));
+					LOGGER.severe(() -> LoggerWrapper.logMessage("masterUsername is empty"));
 					this.useMaster = false;
 				} 
 				else {
-					LOGGER.fine(LoggerWrapper.logMessage("masterUsername= " + this.masterUsername));
+					LOGGER.fine(() -> LoggerWrapper.logMessage("masterUsername= " + this.masterUsername));
 				}
-				this.masterPassword = this.masterAccount.getPassword();
+				this.masterPassword = masterAccount.password;
 				if (this.masterPassword == null || this.masterPassword.isEmpty()) {
-					LOGGER.severe(LoggerWrapper.logMessage("masterPassword is empty"));
+					LOGGER.severe(() -> LoggerWrapper.logMessage("masterPassword is empty"));
 					this.useMaster = false;
 				} 
 				else {
 					if (EXTENDED_DEBUG)
-						LOGGER.fine(LoggerWrapper.logMessage("masterPassword= " + masterPassword));
+						LOGGER.fine(() -> LoggerWrapper.logMessage("masterPassword= " + masterPassword));
 				}
-			}
 
-			this.masterDatabase= this.masterAccount.getTargetApplication().getExtendedAttribute(FIELD_DATABASE);
-			LOGGER.fine(LoggerWrapper.logMessage("masterDatabase= " + this.masterDatabase));
+				this.masterDatabase= TargetConfig.of(masterAccount.application).database;
+				LOGGER.fine(() -> LoggerWrapper.logMessage("masterDatabase= " + this.masterDatabase));
+			}
 		}
-		LOGGER.fine(LoggerWrapper.logMessage("useMaster= " + this.useMaster));
+		LOGGER.fine(() -> LoggerWrapper.logMessage("useMaster= " + this.useMaster));
+		this.configNanos = System.nanoTime() - configStart;
+	}
+
+	/*
+	 * The account on one standby host of the cluster, used to verify when
+	 * the primary cannot be reached
+	 */
+	private PostgreSQL(PostgreSQL account, String hostname, int port) {
+		this.hostname = hostname;
+		this.port = port;
+		this.connectTimeout = account.connectTimeout;
+		this.loginTimeout = account.loginTimeout;
+		this.database = account.database;
+		this.useTLS = account.useTLS;
+		this.username = account.username;
+		this.oldPassword = account.oldPassword;
+		this.newPassword = account.newPassword;
+		this.useMaster = account.useMaster;
+		this.masterUsername = account.masterUsername;
+		this.masterPassword = account.masterPassword;
+		this.masterDatabase = account.masterDatabase;
+		this.operation = account.operation;
 	}
 
 	/**
@@ -186,26 +194,111 @@ public class PostgreSQL {
 	 *
 	 */
 	public void credentialVerify() throws ExtensionException {
+		Failure failure = this.verify();
+		if (failure != null) {
+			throw new ExtensionException(failure.getCode(), false, failure.getArgs());
+		}
+	}
 
+	/**
+	 * Verifies credentials against target device without throwing. Used
+	 * by credentialVerify and by the batch verification.
+	 *
+	 * @return null if the password is verified, otherwise the message code
+	 */
+	Failure verify() {
+
+		this.startOperation(PhaseMetrics.OPERATION_VERIFY);
+		final ConnectorEvents.CredentialVerify event = new ConnectorEvents.CredentialVerify();
+		event.begin();
+
+		/*
+		 * Verified recently, no need to login again
+		 */
+		final long generation = VerificationCache.getInstance().generation(this.hostname, this.port, this.username);
+		if (VerificationCache.getInstance().isVerified(this.hostname, this.port, this.database, this.username, this.oldPassword, generation)) {
+			LOGGER.info(() -> LoggerWrapper.logMessage("PostgreSQL DB user '" + this.username + "' password verified - OK (cached)"));
+			if (event.shouldCommit()) {
+				event.cached = true;
+				this.commitEvent(event, this.database, this.username, null);
+			}
+			return null;
+		}
+
+		final Failure failure = this.standbyHostnames.length > 0 ? this.verifyCluster() : this.verifyLogin();
+		if (failure == null)
+			VerificationCache.getInstance().verified(this.hostname, this.port, this.database, this.username, this.oldPassword, generation);
+		else
+			VerificationCache.getInstance().invalidate(this.hostname, this.port, this.database, this.username, this.oldPassword, generation);
+		if (event.shouldCommit()) {
+			this.commitEvent(event, this.database, this.username, failure);
+		}
+		return failure;
+	}
+
+	/*
+	 * Verify the credentials on the primary, the hosts of the cluster in one
+	 * URL with targetServerType primary (the configured hostname with
+	 * postgresql.verify.mode probe). A standby may lag behind and still
+	 * accept a password just changed, thus the standby hosts are raced, the
+	 * first host accepting the password wins, only if the primary cannot be
+	 * reached.
+	 */
+	private Failure verifyCluster() {
+		final Failure failure = this.verifyLogin();
+		if (!VERIFY_STANDBYS || failure == null || !PostgreSQLMessageConstants.ERR_CONNECTION.equals(failure.getCode()))
+			return failure;
+
+		LOGGER.info(() -> LoggerWrapper.logMessage("Primary of " + this.getHostKey() + " not reachable, verifying on the standby hosts"));
+		final List<Callable<Failure>> logins = new ArrayList<>(this.standbyHostnames.length);
+		for (int i = 0; i < this.standbyHostnames.length; i++) {
+			logins.add(new PostgreSQL(this, this.standbyHostnames[i], this.standbyPorts[i])::verifyLogin);
+		}
+		try {
+			final Failure standbyFailure = HostRace.first(logins);
+			/* no standby reached either, report the primary */
+			if (standbyFailure != null && PostgreSQLMessageConstants.ERR_CONNECTION.equals(standbyFailure.getCode()))
+				return failure;
+			return standbyFailure;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new Failure(PostgreSQLMessageConstants.ERR_EXCEPTION);
+		}
+	}
+
+	/*
+	 * Verify the credentials by logging in to the server
+	 */
+	private Failure verifyLogin() {
 		Connection conn = null;
 		try {
-			final String url = "jdbc:postgresql://" + this.hostname + ":" + Integer.toString(this.port) + "/" + this.database;
-			LOGGER.fine(LoggerWrapper.logMessage("url= " + url));
+			if (VERIFY_PROBE) {
+				/*
+				 * Login using the protocol, no JDBC connection
+				 */
+				LOGGER.fine(() -> LoggerWrapper.logMessage("probe= " + this.getHostKey() + "/" + this.database));
+				this.probeLogin(this.database, this.username, this.oldPassword);
+			}
+			else {
+				final String url = this.buildUrl(this.database);
+				LOGGER.fine(() -> LoggerWrapper.logMessage("url= " + url));
 
-			/*
-			 * build connection properties with username/oldPassword
-			 */
-			Properties props = this.buildConnectionProperties(this.username, this.oldPassword);
-			
-			/*
-			 * Try to open a connection
-			 */
-			conn = DriverManager.getConnection(url, props);
+				/*
+				 * build connection properties with username/oldPassword
+				 */
+				Properties props = this.buildConnectionProperties(this.username, this.oldPassword);
+				
+				/*
+				 * Try to open a connection
+				 */
+				conn = this.openConnection(this.database, props);
+			}
 		
 			/*
 			 * No exception, thus username/password is correct
 			 */
-			LOGGER.info(LoggerWrapper.logMessage("PostgreSQL DB user '" + username + "' password verified - OK"));
+			LOGGER.info(() -> LoggerWrapper.logMessage("PostgreSQL DB user '" + username + "' password verified - OK on " + this.getHostKey()));
 		} 
 		catch (Exception e) {
 			/*
@@ -213,12 +306,39 @@ public class PostgreSQL {
 			 * Password is not verified. 
 			 * Handle the exception
 			 */
-			LOGGER.info(LoggerWrapper.logMessage("PostgreSQL DB user '" + this.username + "' password verified - Not OK"));
-			this.handleExceptions(e, this.username);
+			LOGGER.info(() -> LoggerWrapper.logMessage("PostgreSQL DB user '" + this.username + "' password verified - Not OK on " + this.getHostKey()));
+			return this.classifyException(e, this.username);
 		}
 		finally {
 			try { conn.close(); } catch (Exception e) {}
 		}
+		return null;
+	}
+
+	/*
+	 * Key of identical requests, see SingleFlight. The fingerprint covers
+	 * server, database, role, passwords and the master account.
+	 */
+	String getFlightKey(String operation) {
+		if (PhaseMetrics.OPERATION_VERIFY.equals(operation))
+			return operation + ":" + Fingerprint.of(this.hostname, Integer.toString(this.port), this.database, this.username, this.oldPassword);
+		return operation + ":" + Fingerprint.of(this.hostname, Integer.toString(this.port), this.database, this.username, this.oldPassword,
+				this.newPassword, this.useMaster ? this.masterUsername : "", this.useMaster ? this.masterPassword : "");
+	}
+
+	/*
+	 * Account used to login, the master account with change process other
+	 */
+	String getLoginUsername() {
+		return this.useMaster ? this.masterUsername : this.username;
+	}
+
+	/*
+	 * Server and port of the account, used to limit the number of
+	 * concurrent requests per server
+	 */
+	String getHostKey() {
+		return this.hostname + ":" + Integer.toString(this.port);
 	}
 
 	/**
@@ -232,57 +352,90 @@ public class PostgreSQL {
 	 *                            credential
 	 */
 	public void credentialUpdate() throws ExtensionException {
+		Failure failure = this.update();
+		if (failure != null) {
+			throw new ExtensionException(failure.getCode(), false, failure.getArgs());
+		}
+	}
+
+	/**
+	 * Updates credentials against target device without throwing. Used
+	 * by credentialUpdate and the coalescing of identical requests.
+	 *
+	 * @return null if the password is updated, otherwise the message code
+	 */
+	Failure update() {
+		Failure failure = null;
 		Connection conn = null;
 		Statement stmt= null;
+		MasterConnectionPool.Lease lease= null;
+		ReentrantLock roleLock= null;
+		boolean reusable= false;
 		String loginUsername= "";
 		String loginPassword= "";
 		String url;
 
+		this.startOperation(PhaseMetrics.OPERATION_UPDATE);
+		final ConnectorEvents.CredentialUpdate event = new ConnectorEvents.CredentialUpdate();
+		event.begin();
 		try {
 			if (this.useMaster) {
-				url = "jdbc:postgresql://" + this.hostname + ":" + Integer.toString(this.port) + "/" + this.masterDatabase;
+				url = this.buildUrl(this.masterDatabase);
 				loginUsername = this.masterUsername;
 				loginPassword = this.masterPassword;
 			} 
 			else {
-				url = "jdbc:postgresql://" + this.hostname + ":" + Integer.toString(this.port) + "/" + this.database;
+				url = this.buildUrl(this.database);
 				loginUsername = this.username;
 				loginPassword = this.oldPassword;
 			}
-			LOGGER.fine(LoggerWrapper.logMessage("url= " + url));
-			LOGGER.fine(LoggerWrapper.logMessage("loginUsername= " + loginUsername));
-			if (EXTENDED_DEBUG)
-				LOGGER.fine(LoggerWrapper.logMessage("loginPassword= " + loginPassword));
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(LoggerWrapper.logMessage("url= " + url));
+				LOGGER.fine(LoggerWrapper.logMessage("loginUsername= " + loginUsername));
+				if (EXTENDED_DEBUG)
+					LOGGER.fine(LoggerWrapper.logMessage("loginPassword= " + loginPassword));
+			}
 
 			/*
-			 * build connection properties with loginUsername/loginPassword
+			 * The verifier is computed before the connection is taken
 			 */
-			Properties props = this.buildConnectionProperties(loginUsername, loginPassword);
-			
+			this.preparePassword();
+
+			/*
+			 * Another update of the role finishes first, see RoleLocks
+			 */
+			roleLock= this.lockRole();
+
 			/*
 			 * Get a connection
+			 * The master account connection is taken from the pool, 
+			 * an account changing its own password always logs in.
 			 */
-			conn= DriverManager.getConnection(url, props);
+			if (this.useMaster) {
+				lease= this.borrowMasterConnection();
+				conn= lease.getConnection();
+			}
+			else {
+				conn= this.openConnection(this.database, this.buildUpdateConnectionProperties(loginUsername, loginPassword));
+			}
 			conn.setAutoCommit(false);
 
 			/*
 			 * build and run the ALTER USER command
 			 */
 			stmt= conn.createStatement();
+			this.executeAlterUser(stmt);
 
-			final String query= "ALTER USER \"" + this.username + "\" PASSWORD E'" + newPassword.replace("'", "''") + "'";
-			if (EXTENDED_DEBUG)
-				LOGGER.fine(LoggerWrapper.logMessage("query= " + query));
-			else
-				LOGGER.fine(LoggerWrapper.logMessage("query= ALTER USER \"" + this.username + "\" PASSWORD E'<hidden>'"));
-			
-			stmt.execute(query);
+			final long commitStart = System.nanoTime();
 			conn.commit();
+			PhaseMetrics.record(this.operation, PhaseMetrics.PHASE_COMMIT, this.getHostKey(), true, System.nanoTime() - commitStart);
+			reusable= true;
+			this.updated();
 			
 			/*
 			 * Made  it this far without exceptions --> password is updated
 			 */
-			LOGGER.info(LoggerWrapper.logMessage("PostgreSQL DB user '" + this.username + "' password updated - OK"));
+			LOGGER.info(() -> LoggerWrapper.logMessage("PostgreSQL DB user '" + this.username + "' password updated - OK"));
 		} 
 		catch (Exception e) {
 			/*
@@ -290,19 +443,491 @@ public class PostgreSQL {
 			 * Password is not updated. 
 			 * Handle the exception
 			 */
-			LOGGER.info(LoggerWrapper.logMessage("PostgreSQL DB user '" + this.username + "' password updated - Not OK"));
-			this.handleExceptions(e, loginUsername);
+			LOGGER.info(() -> LoggerWrapper.logMessage("PostgreSQL DB user '" + this.username + "' password updated - Not OK"));
+			failure = this.classifyException(e, loginUsername);
 		}
 		finally {
 			try { stmt.close(); } catch (Exception e) {}
-			try { conn.close(); } catch (Exception e) {}
+			if (lease != null)
+				MasterConnectionPool.getInstance().release(lease, reusable);
+			else
+				try { conn.close(); } catch (Exception e) {}
+			if (roleLock != null)
+				roleLock.unlock();
+		}
+
+		if (event.shouldCommit()) {
+			event.batchSize = 1;
+			this.commitEvent(event, this.database, this.username, failure);
+		}
+		return failure;
+	}
+
+	/**
+	 * Open a cursor over the roles of the server, logged in with the
+	 * account or, with change process other, with the master account. The
+	 * connection is not taken from the pool, it is closed with the cursor.
+	 * With standby hosts a standby is preferred.
+	 *
+	 * @param fetchSize rows fetched from the server at a time
+	 * @return the cursor, positioned before the first role
+	 */
+	RoleCursor openRoleCursor(int fetchSize) throws SQLException {
+		this.startOperation(PhaseMetrics.OPERATION_ROLES);
+		final String loginDatabase = this.useMaster ? this.masterDatabase : this.database;
+		final String loginUsername = this.getLoginUsername();
+		final Properties props = this.useMaster
+				? this.buildConnectionProperties(this.masterUsername, this.masterPassword)
+				: this.buildConnectionProperties(this.username, this.oldPassword);
+		if (this.standbyHostnames.length > 0)
+			props.setProperty("targetServerType", "preferSecondary");
+		LOGGER.fine(() -> LoggerWrapper.logMessage("roles= " + this.getHostKey() + "/" + loginDatabase + " as '" + loginUsername + "'"));
+
+		final Connection conn = this.openConnection(loginDatabase, props);
+		Statement stmt = null;
+		boolean success = false;
+		final long start = System.nanoTime();
+		try {
+			/*
+			 * Without autocommit and with a fetch size the driver reads the
+			 * result in chunks from a portal
+			 */
+			conn.setAutoCommit(false);
+			conn.setReadOnly(true);
+			stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(fetchSize);
+			final RoleCursor cursor = new RoleCursor(conn, stmt, stmt.executeQuery(RoleCursor.QUERY), fetchSize);
+			success = true;
+			return cursor;
+		}
+		finally {
+			PhaseMetrics.record(this.operation, PhaseMetrics.PHASE_QUERY, this.getHostKey(), success, System.nanoTime() - start);
+			if (!success) {
+				if (stmt != null)
+					try { stmt.close(); } catch (Exception e) {}
+				try { conn.close(); } catch (Exception e) {}
+			}
+		}
+	}
+
+	/**
+	 * Updates credentials for several accounts logging in with the same
+	 * account, see getBatchKey(). The login is done once and the ALTER USER
+	 * commands are sent over the same connection. Each command is committed
+	 * on its own, thus a failure for one account does not roll back the
+	 * others.
+	 *
+	 * @param accounts accounts with the same login key
+	 * @return one entry per account, null if the password is updated
+	 */
+	static Failure[] credentialUpdateBatch(List<PostgreSQL> accounts) {
+		final Failure[] result = new Failure[accounts.size()];
+		final PostgreSQL first = accounts.get(0);
+		final String loginUsername = first.useMaster ? first.masterUsername : first.username;
+		final ConnectorEvents.CredentialUpdate[] events = new ConnectorEvents.CredentialUpdate[accounts.size()];
+		for (int i = 0; i < accounts.size(); i++) {
+			accounts.get(i).startOperation(PhaseMetrics.OPERATION_UPDATE);
+			events[i] = new ConnectorEvents.CredentialUpdate();
+			events[i].begin();
+		}
+
+		/*
+		 * Compute the verifiers on all cores before logging in
+		 */
+		if (ENCRYPT_SCRAM) {
+			IntStream.range(0, accounts.size()).parallel().forEach(i -> {
+				try {
+					accounts.get(i).preparePassword();
+				}
+				catch (GeneralSecurityException e) {
+					result[i] = accounts.get(i).classifyException(e, loginUsername);
+				}
+			});
+		}
+
+		Connection conn = null;
+		MasterConnectionPool.Lease lease = null;
+		boolean reusable = false;
+		try {
+			if (first.useMaster) {
+				lease = first.borrowMasterConnection();
+				conn = lease.getConnection();
+			}
+			else {
+				conn = first.openConnection(first.database, first.buildUpdateConnectionProperties(first.username, first.oldPassword));
+			}
+		}
+		catch (Exception e) {
+			LOGGER.info(() -> LoggerWrapper.logMessage("Login as '" + loginUsername + "' for " + accounts.size() + " PostgreSQL DB user(s) - Not OK"));
+			Arrays.fill(result, first.classifyException(e, loginUsername));
+			commitBatchEvents(accounts, events, result);
+			return result;
+		}
+
+		/*
+		 * Accounts before done are processed, each ALTER USER is committed
+		 * on its own, thus a later failure does not change their result
+		 */
+		int done = 0;
+		try (Statement stmt = conn.createStatement()) {
+			conn.setAutoCommit(true);
+			for (int i = 0; i < accounts.size(); i++) {
+				PostgreSQL account = accounts.get(i);
+				if (result[i] != null) {
+					done = i + 1;
+					continue;
+				}
+				ReentrantLock roleLock = null;
+				try {
+					roleLock = account.lockRole();
+					account.executeAlterUser(stmt);
+					account.updated();
+					LOGGER.info(() -> LoggerWrapper.logMessage("PostgreSQL DB user '" + account.username + "' password updated - OK"));
+				}
+				catch (SQLException | RoleLocks.BusyException e) {
+					LOGGER.info(() -> LoggerWrapper.logMessage("PostgreSQL DB user '" + account.username + "' password updated - Not OK"));
+					result[i] = account.classifyException(e, loginUsername);
+				}
+				catch (InterruptedException e) {
+					/*
+					 * Stop, the remaining accounts are not updated
+					 */
+					Thread.currentThread().interrupt();
+					LOGGER.info(() -> LoggerWrapper.logMessage("PostgreSQL DB user '" + account.username + "' password updated - Not OK, interrupted"));
+					result[i] = account.classifyException(e, loginUsername);
+					done = i + 1;
+					break;
+				}
+				finally {
+					if (roleLock != null)
+						roleLock.unlock();
+				}
+				done = i + 1;
+			}
+			reusable = !conn.isClosed();
+		}
+		catch (Exception e) {
+			final Failure failure = first.classifyException(e, loginUsername);
+			for (int i = done; i < result.length; i++) {
+				if (result[i] == null)
+					result[i] = failure;
+			}
+		}
+		finally {
+			if (lease != null)
+				MasterConnectionPool.getInstance().release(lease, reusable);
+			else
+				try { conn.close(); } catch (Exception e) {}
+		}
+		/*
+		 * Not processed after an interrupt
+		 */
+		for (int i = done; i < result.length; i++) {
+			if (result[i] == null)
+				result[i] = new Failure(PostgreSQLMessageConstants.ERR_EXCEPTION);
+		}
+		commitBatchEvents(accounts, events, result);
+		return result;
+	}
+
+	/*
+	 * One update event per account of a batch
+	 */
+	private static void commitBatchEvents(List<PostgreSQL> accounts, ConnectorEvents.CredentialUpdate[] events, Failure[] result) {
+		for (int i = 0; i < accounts.size(); i++) {
+			if (events[i].shouldCommit()) {
+				events[i].batchSize = accounts.size();
+				accounts.get(i).commitEvent(events[i], accounts.get(i).database, accounts.get(i).username, result[i]);
+			}
+		}
+	}
+
+	/*
+	 * With password encryption scram-sha-256 the SCRAM verifier of the new
+	 * password is sent instead of the password, thus the key derivation is
+	 * done here and not by the server
+	 */
+	private void preparePassword() throws GeneralSecurityException {
+		if (!ENCRYPT_SCRAM || this.passwordVerifier != null)
+			return;
+		final long start = System.nanoTime();
+		boolean success = false;
+		try {
+			this.passwordVerifier = Scram.verifier(this.newPassword, SCRAM_ITERATIONS);
+			success = true;
+		}
+		finally {
+			PhaseMetrics.record(this.operation, PhaseMetrics.PHASE_HASH, this.getHostKey(), success, System.nanoTime() - start);
+		}
+	}
+
+	/*
+	 * Lock the role against concurrent updates, recording the wait
+	 */
+	private ReentrantLock lockRole() throws RoleLocks.BusyException, InterruptedException {
+		final long start = System.nanoTime();
+		boolean success = false;
+		try {
+			final ReentrantLock lock = RoleLocks.getInstance().lock(this.getHostKey(), this.username);
+			success = true;
+			return lock;
+		}
+		finally {
+			PhaseMetrics.record(this.operation, PhaseMetrics.PHASE_LOCK, this.getHostKey(), success, System.nanoTime() - start);
+		}
+	}
+
+	/*
+	 * Run the ALTER USER command, recording its latency
+	 */
+	private void executeAlterUser(Statement stmt) throws SQLException {
+		final String query = this.buildAlterUserQuery();
+		final ConnectorEvents.AlterUser event = new ConnectorEvents.AlterUser();
+		event.begin();
+		final long start = System.nanoTime();
+		boolean success = false;
+		try {
+			stmt.execute(query);
+			success = true;
+		}
+		finally {
+			PhaseMetrics.record(this.operation, PhaseMetrics.PHASE_ALTER, this.getHostKey(), success, System.nanoTime() - start);
+			if (event.shouldCommit()) {
+				event.outcome = success ? ConnectorEvents.OUTCOME_OK : ConnectorEvents.OUTCOME_ERROR;
+				this.commitEvent(event, this.database, this.username, null);
+			}
+		}
+	}
+
+	/*
+	 * Fill in the common fields and commit a JFR event. The outcome is taken
+	 * from the failure unless already set.
+	 */
+	private void commitEvent(ConnectorEvents.ConnectorEvent event, String database, String role, Failure failure) {
+		event.host = this.getHostKey();
+		event.database = database;
+		event.role = role;
+		event.changeProcess = this.useMaster ? ConnectorEvents.CHANGE_OTHER : ConnectorEvents.CHANGE_OWN;
+		if (event.outcome == null)
+			event.outcome = failure == null ? ConnectorEvents.OUTCOME_OK : failure.getCode();
+		event.commit();
+	}
+
+	private void startOperation(String operation) {
+		this.operation = operation;
+		PhaseMetrics.record(operation, PhaseMetrics.PHASE_CONFIG, this.getHostKey(), true, this.configNanos);
+	}
+
+	/*
+	 * The password is updated, the old password is not valid for any
+	 * database of the server, the new password is known to be valid
+	 */
+	private void updated() {
+		VerificationCache.getInstance().updated(this.hostname, this.port, this.database, this.username, this.newPassword);
+	}
+
+	/*
+	 * Key of the master account connections in the pool, with all hosts of
+	 * the cluster
+	 */
+	MasterConnectionPool.Key getLoginKey() {
+		final StringBuilder standbyHosts = new StringBuilder();
+		for (int i = 0; i < this.standbyHostnames.length; i++) {
+			if (i > 0)
+				standbyHosts.append(',');
+			standbyHosts.append(TargetConfig.urlHost(this.standbyHostnames[i])).append(':').append(this.standbyPorts[i]);
+		}
+		return new MasterConnectionPool.Key(this.hostname, this.port, this.masterDatabase, this.masterUsername, this.useTLS, standbyHosts.toString());
+	}
+
+	/**
+	 * Key of the login used when updating the password. Accounts with the
+	 * same key are updated using one connection in the batch update. The
+	 * master password is part of the key, an account sent with another
+	 * master password logs in on its own.
+	 *
+	 * @return the key, or null if the account changes its own password
+	 */
+	Object getBatchKey() {
+		if (!this.useMaster)
+			return null;
+		return Arrays.asList(this.getLoginKey(), Fingerprint.of(this.masterPassword));
+	}
+
+	/*
+	 * Take a connection logged in with the master account from the pool
+	 */
+	private MasterConnectionPool.Lease borrowMasterConnection() throws SQLException {
+		final Properties props = this.buildUpdateConnectionProperties(this.masterUsername, this.masterPassword);
+		return MasterConnectionPool.getInstance().borrow(this.getLoginKey(), this.masterPassword, () -> this.openConnection(this.masterDatabase, props));
+	}
+
+	/*
+	 * Timeouts of the driver in milliseconds. The login timeout of the
+	 * driver covers the whole connection attempt and is given in seconds
+	 * with decimals, the connect timeout only in whole seconds, the socket
+	 * applies it in milliseconds (see TimedSocketFactory).
+	 */
+	private void setTimeouts(Properties props, long connectTimeout, long loginTimeout) {
+		props.setProperty("loginTimeout", toSeconds(Math.max(1, loginTimeout)));
+		props.setProperty("connectTimeout", Long.toString(Math.max(1, (connectTimeout + 999) / 1000)));
+	}
+
+	private static String toSeconds(long millis) {
+		final String fraction = Long.toString(1000 + millis % 1000).substring(1);
+		return Long.toString(millis / 1000) + "." + fraction;
+	}
+
+	/*
+	 * Open a connection, unless the circuit breaker for the host is open
+	 */
+	private Connection openConnection(String database, Properties props) throws SQLException {
+		final String url = this.buildUrl(database);
+		final String hostKey = this.getHostKey();
+		final Object breakerProbe = CircuitBreaker.getInstance().acquire(hostKey);
+
+		/*
+		 * Timeouts from the latency of the host, at most the configured ones
+		 */
+		final AdaptiveTimeouts.Host latency = AdaptiveTimeouts.getInstance().get(hostKey);
+		final long connectTimeout = latency.connectTimeout(this.connectTimeout);
+		/*
+		 * With standby hosts the driver may try several hosts before the
+		 * primary, the login latency of one host does not apply
+		 */
+		final boolean multiHost = this.standbyHostnames.length > 0;
+		final long loginTimeout = multiHost ? this.loginTimeout : Math.min(this.loginTimeout, connectTimeout + latency.loginTimeout(this.loginTimeout));
+		boolean reachable = true;
+		boolean success = false;
+		final ConnectorEvents.ConnectionOpen event = new ConnectorEvents.ConnectionOpen();
+		event.begin();
+		final long start = System.nanoTime();
+		try (ConnectionTiming timing = ConnectionTiming.start()) {
+			props.setProperty("socketFactory", TimedSocketFactory.class.getName());
+			props.setProperty("socketFactoryArg", timing.getId());
+			timing.setConnectTimeout((int) Math.min(Integer.MAX_VALUE, connectTimeout));
+			this.setTimeouts(props, connectTimeout, loginTimeout);
+			try {
+				Connection conn = DriverManager.getConnection(url, props);
+				success = true;
+				return conn;
+			}
+			catch (SQLException e) {
+				reachable = !CircuitBreaker.isConnectionFailure(e);
+				throw e;
+			}
+			finally {
+				/*
+				 * TCP connect measured by the socket, the rest is the login
+				 */
+				final long total = System.nanoTime() - start;
+				final long connect = timing.getConnectNanos();
+				if (connect >= 0) {
+					PhaseMetrics.record(this.operation, PhaseMetrics.PHASE_CONNECT, hostKey, timing.isConnected(), connect);
+					if (timing.isConnected())
+						PhaseMetrics.record(this.operation, PhaseMetrics.PHASE_LOGIN, hostKey, success, total - connect);
+					/*
+					 * Latency estimates, a timeout counts with its duration
+					 */
+					if (timing.isConnected() || connect >= connectTimeout * 1000000L)
+						latency.connect.record(connect);
+					if (!multiHost && (success || (timing.isConnected() && total >= loginTimeout * 1000000L)))
+						latency.login.record(total - connect);
+				}
+				else {
+					PhaseMetrics.record(this.operation, PhaseMetrics.PHASE_CONNECT, hostKey, false, total);
+				}
+				/*
+				 * The handshake failed only if the connection failed, a
+				 * login error is reported through the TLS session
+				 */
+				if (timing.getTlsSocket() != null)
+					TlsContexts.getInstance().completed(timing.getTlsSocket(), success || reachable);
+				if (event.shouldCommit()) {
+					event.method = "jdbc";
+					event.outcome = success ? ConnectorEvents.OUTCOME_OK : ConnectorEvents.OUTCOME_ERROR;
+					this.commitEvent(event, database, props.getProperty("user"), null);
+				}
+			}
+		}
+		finally {
+			CircuitBreaker.getInstance().release(hostKey, breakerProbe, reachable);
+		}
+	}
+
+	/*
+	 * Login using the PostgreSQL protocol without a JDBC connection, unless
+	 * the circuit breaker for the host is open
+	 */
+	private void probeLogin(String database, String loginUsername, String loginPassword) throws SQLException {
+		final String hostKey = this.getHostKey();
+		final Object breakerProbe = CircuitBreaker.getInstance().acquire(hostKey);
+		boolean reachable = true;
+		final AdaptiveTimeouts.Host latency = AdaptiveTimeouts.getInstance().get(hostKey);
+		final AuthProbe probe = new AuthProbe(this.hostname, this.port, database, this.useTLS,
+				latency.connectTimeout(this.connectTimeout), latency.loginTimeout(this.loginTimeout));
+		final ConnectorEvents.ConnectionOpen event = new ConnectorEvents.ConnectionOpen();
+		event.begin();
+		boolean success = false;
+		try {
+			probe.authenticate(loginUsername, loginPassword);
+			success = true;
+		}
+		catch (SQLException e) {
+			reachable = !CircuitBreaker.isConnectionFailure(e);
+			throw e;
+		}
+		finally {
+			probe.recordMetrics(this.operation, hostKey);
+			probe.recordLatency(latency);
+			CircuitBreaker.getInstance().release(hostKey, breakerProbe, reachable);
+			if (event.shouldCommit()) {
+				event.method = "probe";
+				event.outcome = success ? ConnectorEvents.OUTCOME_OK : ConnectorEvents.OUTCOME_ERROR;
+				this.commitEvent(event, database, loginUsername, null);
+			}
+			final ConnectorEvents.TlsHandshake tls = probe.getTlsEvent();
+			if (tls != null && tls.shouldCommit()) {
+				this.commitEvent(tls, database, loginUsername, null);
+			}
 		}
 	}
 
+	/*
+	 * With standby hosts all hosts of the cluster are in the URL, the driver
+	 * connects to the one being primary (see buildConnectionProperties).
+	 * IPv6 addresses are written in brackets.
+	 */
+	private String buildUrl(String database) {
+		final StringBuilder url = new StringBuilder("jdbc:postgresql://").append(TargetConfig.urlHost(this.hostname)).append(':').append(this.port);
+		for (int i = 0; i < this.standbyHostnames.length; i++) {
+			url.append(',').append(TargetConfig.urlHost(this.standbyHostnames[i])).append(':').append(this.standbyPorts[i]);
+		}
+		return url.append('/').append(database).toString();
+	}
+
+	/*
+	 * The ALTER USER command setting the new password
+	 */
+	private String buildAlterUserQuery() {
+		final String query;
+		if (this.passwordVerifier != null)
+			query= "ALTER USER \"" + this.username + "\" PASSWORD '" + this.passwordVerifier + "'";
+		else
+			query= "ALTER USER \"" + this.username + "\" PASSWORD E'" + newPassword.replace("'", "''") + "'";
+		if (EXTENDED_DEBUG)
+			LOGGER.fine(() -> LoggerWrapper.logMessage("query= " + query));
+		else if (this.passwordVerifier != null)
+			LOGGER.fine(() -> LoggerWrapper.logMessage("query= ALTER USER \"" + this.username + "\" PASSWORD '<hidden SCRAM-SHA-256 verifier>'"));
+		else
+			LOGGER.fine(() -> LoggerWrapper.logMessage("query= ALTER USER \"" + this.username + "\" PASSWORD E'<hidden plaintext>'"));
+		return query;
+	}
+
 	/*
 	 * Create PostgrSQL connection properties
 	 */
-	private Properties buildConnectionProperties(String loginUsername, String loginPassword) throws ExtensionException {
+	Properties buildConnectionProperties(String loginUsername, String loginPassword) {
 		Properties props = new Properties();
 
 		props.setProperty("user", loginUsername);
@@ -310,53 +935,121 @@ public class PostgreSQL {
 		props.setProperty("ssl", Boolean.toString(this.useTLS));
 		if (this.useTLS) {
 			// props.setProperty("sslmode","allow");
-			props.setProperty("sslfactory", "org.postgresql.ssl.NonValidatingFactory");
-			props.setProperty("sslmode", "require");
+			props.setProperty("sslfactory", ConnectorSSLSocketFactory.class.getName());
+			props.setProperty("sslfactoryarg", TlsContexts.getValidation());
+			props.setProperty("sslmode", TlsContexts.getSslMode());
 		}
-		props.setProperty("loginTimeout",Long.toString((this.loginTimeout / 1000) > 1 ? this.loginTimeout / 1000 : 1));
-		props.setProperty("connectTimeout",Long.toString((this.connectTimeout / 1000) > 1 ? this.connectTimeout / 1000 : 1));
+		this.setTimeouts(props, this.connectTimeout, this.loginTimeout);
 		props.setProperty("loggerLevel", PostgreSQL.POSTGRESQL_LOGLEVEL);
+		if (this.standbyHostnames.length > 0)
+			props.setProperty("targetServerType", "primary");
 		
 		return props;
 	}
 	
 	/*
-	 * Deal with exceptions
+	 * Connection properties for updating passwords. The server cancels a
+	 * statement running longer than postgresql.update.statementTimeout
+	 * milliseconds, e.g. an ALTER USER waiting for a lock, thus an update
+	 * ends with an error instead of being committed at some later time.
+	 */
+	private Properties buildUpdateConnectionProperties(String loginUsername, String loginPassword) {
+		final Properties props = this.buildConnectionProperties(loginUsername, loginPassword);
+		if (STATEMENT_TIMEOUT > 0)
+			props.setProperty("options", "-c statement_timeout=" + STATEMENT_TIMEOUT);
+		return props;
+	}
+
+	/*
+	 * Map an exception to a message code
 	 * 
-	 * @param e The exception to handle
+	 * @param e The exception to classify
 	 * @param loginUsername Username tried for login
-	 * @return
-	 * @throws ExtensionException
+	 * @return message code and arguments
 	 */
-	private void handleExceptions(Exception e, String loginUsername) throws ExtensionException {
+	Failure classifyException(Exception e, String loginUsername) {
+		final ConnectorEvents.ErrorClassification event = new ConnectorEvents.ErrorClassification();
+		event.begin();
+		final Failure failure = this.classify(e, loginUsername, true);
+		if (event.shouldCommit()) {
+			event.exceptionClass = e.getClass().getName();
+			event.sqlState = e instanceof SQLException ? ((SQLException) e).getSQLState() : null;
+			this.commitEvent(event, this.database, loginUsername, failure);
+		}
+		return failure;
+	}
+
+	/*
+	 * Map an exception to a message code, logging it unless log is false
+	 * (the warm-up)
+	 */
+	Failure classify(Exception e, String loginUsername, boolean log) {
 
+		if (e instanceof RoleLocks.BusyException) {
+			if (log)
+				LOGGER.severe(() -> LoggerWrapper.logMessage(e.getMessage()));
+			return new Failure(PostgreSQLMessageConstants.ERR_ROLE_BUSY, this.username);
+		}
+		if (e instanceof CircuitBreaker.OpenException) {
+			if (log)
+				LOGGER.severe(() -> LoggerWrapper.logMessage("Connection error -- " + e.getMessage()));
+			return new Failure(PostgreSQLMessageConstants.ERR_CONNECTION, this.getHostKey());
+		}
 		if (e instanceof SQLException) {
 			if (e.getMessage().contains("does not exist")) {
-				LOGGER.severe(LoggerWrapper.logMessage("User '" + this.username + "' not found"));
-				throw new ExtensionException(PostgreSQLMessageConstants.ERR_USER_NOT_FOUND, false, this.username);
+				if (log)
+					LOGGER.severe(() -> LoggerWrapper.logMessage("User '" + this.username + "' not found"));
+				return new Failure(PostgreSQLMessageConstants.ERR_USER_NOT_FOUND, this.username);
 			} 
 			else if (e.getMessage().contains("password authentication failed")) {
-				LOGGER.severe(LoggerWrapper.logMessage("Incorrect password"));
-				throw new ExtensionException(PostgreSQLMessageConstants.ERR_PASSWORD, false);
+				if (log)
+					LOGGER.severe(() -> LoggerWrapper.logMessage("Incorrect password"));
+				return new Failure(PostgreSQLMessageConstants.ERR_PASSWORD);
 			} 
-			else if (e.getMessage().contains("Check that the hostname and port are correct")) {
-				LOGGER.severe(LoggerWrapper.logMessage("Connection error -- " + e.getMessage()));
-				throw new ExtensionException(PostgreSQLMessageConstants.ERR_CONNECTION, false, this.hostname + ":" + Integer.toString(this.port));
+			else if (e.getMessage().contains("Check that the hostname and port are correct")
+					|| e.getMessage().contains("Could not find a server with specified targetServerType")) {
+				if (log)
+					LOGGER.severe(() -> LoggerWrapper.logMessage("Connection error -- " + e.getMessage()));
+				return new Failure(PostgreSQLMessageConstants.ERR_CONNECTION, this.hostname + ":" + Integer.toString(this.port));
 			} 
 			else if (e.getMessage().contains("is not permitted to log in")) {
-				LOGGER.severe(LoggerWrapper.logMessage("Login not permitted for user '" + loginUsername + "'"));
-				throw new ExtensionException(PostgreSQLMessageConstants.ERR_LOGIN_NOT_PERMITTED, false, loginUsername);
+				if (log)
+					LOGGER.severe(() -> LoggerWrapper.logMessage("Login not permitted for user '" + loginUsername + "'"));
+				return new Failure(PostgreSQLMessageConstants.ERR_LOGIN_NOT_PERMITTED, loginUsername);
 			} 
 			else if (e.getMessage().contains("The server does not support SSL")) {
-				LOGGER.severe(LoggerWrapper.logMessage("SSL not enabled on server"));
-				throw new ExtensionException(PostgreSQLMessageConstants.ERR_TLS_NOT_SUPPORTED, false);
+				if (log)
+					LOGGER.severe(() -> LoggerWrapper.logMessage("SSL not enabled on server"));
+				return new Failure(PostgreSQLMessageConstants.ERR_TLS_NOT_SUPPORTED);
 			}
 		}
 		
 		/*
 		 * something other than SQLException
 		 */
-		LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Extension Exception"), e);
-		throw new ExtensionException(PostgreSQLMessageConstants.ERR_EXCEPTION, false);
+		if (log)
+			LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Extension Exception"));
+		return new Failure(PostgreSQLMessageConstants.ERR_EXCEPTION);
+	}
+
+	/*
+	 * Message code and arguments for a failed verify or update
+	 */
+	static final class Failure {
+		private final String code;
+		private final String[] args;
+
+		Failure(String code, String... args) {
+			this.code = code;
+			this.args = args;
+		}
+
+		String getCode() {
+			return this.code;
+		}
+
+		String[] getArgs() {
+			return this.args;
+		}
 	}
 }
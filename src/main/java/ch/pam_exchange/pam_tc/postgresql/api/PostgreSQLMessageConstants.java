@@ -10,5 +10,8 @@ public interface PostgreSQLMessageConstants {
 	String ERR_USER_NOT_FOUND = "PAM-EF-1406";
 	String ERR_TLS_NOT_SUPPORTED = "PAM-EF-1407";
 	String ERR_LOGIN_NOT_PERMITTED = "PAM-EF-1408";
+	String ERR_TIMEOUT = "PAM-EF-1409";
+	String ERR_REQUEST_TOO_LARGE = "PAM-EF-1410";
+	String ERR_ROLE_BUSY = "PAM-EF-1411";
 
 }
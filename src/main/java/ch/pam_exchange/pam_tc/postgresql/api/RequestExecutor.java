@@ -0,0 +1,136 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.api.exception.ExtensionException;
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+import com.ca.pam.extensions.core.util.MessageConstants;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.core.Response;
+
+/*
+ * Runs the credential requests outside of the Tomcat connector threads.
+ *
+ * The request thread is given back to Tomcat as soon as the request is
+ * handed over, thus a few unreachable servers cannot block the connector.
+ * On Java 21 or later virtual threads are used, on older versions a
+ * bounded pool of postgresql.async.maxThreads threads. A verify not
+ * completed within postgresql.async.requestTimeout milliseconds is
+ * answered with ERR_TIMEOUT. An update is not timed out here: a JDBC call
+ * cannot be interrupted, the ALTER USER could still be committed after PAM
+ * was told that the update failed. An update is bounded by the timeouts of
+ * its steps instead (login, pool, role lock, statement_timeout).
+ *
+ * With postgresql.async.enabled false a request is run on the request
+ * thread as before, for comparing both (see AsyncComparison).
+ */
+final class RequestExecutor {
+
+	private static final Logger LOGGER = Logger.getLogger(RequestExecutor.class.getName());
+
+	private static final boolean ENABLED = ExtensionProperties.getBoolean("postgresql.async.enabled", true);
+	private static final long REQUEST_TIMEOUT = ExtensionProperties.getLong("postgresql.async.requestTimeout", 30000);
+	private static final int MAX_THREADS = Math.max(1, ExtensionProperties.getInt("postgresql.async.maxThreads", 200));
+	private static final boolean VIRTUAL_THREADS = ExtensionProperties.getBoolean("postgresql.async.virtualThreads", true);
+
+	private static ExecutorService executor = null;
+
+	private RequestExecutor() {
+	}
+
+	/**
+	 * Run the request and resume the suspended response with the result.
+	 *
+	 * @param asyncResponse the suspended response
+	 * @param request       builds the response, may throw ExtensionException
+	 * @param timeout       answer ERR_TIMEOUT after requestTimeout, false for
+	 *                      requests changing the server
+	 */
+	static void submit(AsyncResponse asyncResponse, Supplier<Response> request, boolean timeout) {
+		if (!ENABLED) {
+			run(asyncResponse, request);
+			return;
+		}
+		final AtomicReference<Future<?>> task = new AtomicReference<>();
+
+		if (timeout) {
+			asyncResponse.setTimeoutHandler(ar -> {
+				LOGGER.warning(() -> LoggerWrapper.logMessage("Request not completed within " + REQUEST_TIMEOUT + " ms"));
+				ar.resume(new ExtensionException(PostgreSQLMessageConstants.ERR_TIMEOUT, false, Long.toString(REQUEST_TIMEOUT)));
+				Future<?> f = task.get();
+				if (f != null) {
+					f.cancel(true);
+				}
+			});
+			asyncResponse.setTimeout(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+
+		try {
+			task.set(getExecutor().submit(() -> run(asyncResponse, request)));
+		}
+		catch (RejectedExecutionException e) {
+			LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Request rejected"));
+			asyncResponse.resume(new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]));
+		}
+	}
+
+	private static void run(AsyncResponse asyncResponse, Supplier<Response> request) {
+		try {
+			asyncResponse.resume(request.get());
+		}
+		catch (Throwable t) {
+			asyncResponse.resume(t);
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			if (VIRTUAL_THREADS) {
+				try {
+					/*
+					 * Java 21+, the connector is compiled for Java 17
+					 */
+					executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+					LOGGER.info(() -> LoggerWrapper.logMessage("Using virtual threads for credential requests"));
+				}
+				catch (ReflectiveOperationException e) {
+					LOGGER.fine(() -> LoggerWrapper.logMessage("Virtual threads not available"));
+				}
+			}
+			if (executor == null) {
+				final AtomicInteger counter = new AtomicInteger();
+				ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+					Thread t = new Thread(r, "postgresql-request-" + counter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+				pool.allowCoreThreadTimeOut(true);
+				executor = pool;
+				LOGGER.info(() -> LoggerWrapper.logMessage("Using " + MAX_THREADS + " threads for credential requests"));
+			}
+		}
+		return executor;
+	}
+
+	/*
+	 * Stop the threads. Called when the connector is undeployed.
+	 */
+	static synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/*
+ * The roles of a server, read with a cursor.
+ *
+ * The query runs in a transaction with a fetch size, thus the JDBC driver
+ * uses a portal on the server and holds only fetchSize rows at a time. A
+ * role is written as one line of JSON
+ *
+ *   {"roleName":"adm1","canLogin":true,"superuser":false,"validUntil":"2026-12-31T00:00:00Z","memberOf":["admins"]}
+ *
+ * validUntil is UTC, "infinity" or null. The roles of PostgreSQL (pg_*)
+ * are left out.
+ */
+final class RoleCursor implements AutoCloseable {
+
+	static final String QUERY = "SELECT r.rolname, r.rolcanlogin, r.rolsuper,"
+			+ " CASE WHEN r.rolvaliduntil = 'infinity' THEN 'infinity'"
+			+ " ELSE to_char(r.rolvaliduntil AT TIME ZONE 'UTC', 'YYYY-MM-DD\"T\"HH24:MI:SS\"Z\"') END,"
+			+ " ARRAY(SELECT g.rolname FROM pg_auth_members m JOIN pg_roles g ON g.oid = m.roleid"
+			+ " WHERE m.member = r.oid ORDER BY g.rolname)"
+			+ " FROM pg_roles r WHERE r.rolname !~ '^pg_' ORDER BY r.rolname";
+
+	private static final JsonFactory FACTORY = new JsonFactory();
+
+	private final Connection conn;
+	private final Statement stmt;
+	private final ResultSet rs;
+	private final int fetchSize;
+	private long count = 0;
+
+	RoleCursor(Connection conn, Statement stmt, ResultSet rs, int fetchSize) {
+		this.conn = conn;
+		this.stmt = stmt;
+		this.rs = rs;
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Write the remaining roles, one line each. The output is flushed after
+	 * each fetch, thus the client receives the roles while they are read.
+	 *
+	 * @return number of roles written
+	 */
+	long writeTo(OutputStream out) throws IOException, SQLException {
+		final JsonGenerator json = FACTORY.createGenerator(out);
+		json.setRootValueSeparator(null);
+		json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		while (this.rs.next()) {
+			json.writeStartObject();
+			json.writeStringField("roleName", this.rs.getString(1));
+			json.writeBooleanField("canLogin", this.rs.getBoolean(2));
+			json.writeBooleanField("superuser", this.rs.getBoolean(3));
+			json.writeStringField("validUntil", this.rs.getString(4));
+			json.writeArrayFieldStart("memberOf");
+			final Array memberOf = this.rs.getArray(5);
+			if (memberOf != null) {
+				for (Object role : (Object[]) memberOf.getArray()) {
+					json.writeString(String.valueOf(role));
+				}
+				memberOf.free();
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+			json.writeRaw('\n');
+			if (++this.count % this.fetchSize == 0)
+				json.flush();
+		}
+		json.flush();
+		return this.count;
+	}
+
+	/*
+	 * Roles written so far
+	 */
+	long getCount() {
+		return this.count;
+	}
+
+	@Override
+	public void close() {
+		try { this.rs.close(); } catch (Exception e) {}
+		try { this.stmt.close(); } catch (Exception e) {}
+		try { this.conn.rollback(); } catch (Exception e) {}
+		try { this.conn.close(); } catch (Exception e) {}
+	}
+}
@@ -0,0 +1,116 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Serialization of password updates of the same role.
+ *
+ * Two updates of the same role, e.g. by the master account and by the
+ * account itself, wait for each other on the pg_authid row lock in the
+ * server, each holding a connection and a thread. Here the second update
+ * waits before it takes a connection, on a fair lock of (host:port, role),
+ * at most postgresql.rolelock.maxWait milliseconds. Updates of other roles
+ * run in parallel. An update is not timed out by the connector, maxWait
+ * only has to stay well below the request timeout of PAM, otherwise PAM
+ * gives up before PAM-EF-1411 can be answered.
+ *
+ * The batch update is the exception, its login is shared by the accounts of
+ * the batch and each role is locked in turn while the connection is held.
+ * Locking all roles first would hold many locks at once, and two batches
+ * locking the same roles in another order could wait for each other.
+ *
+ * The locks are striped, postgresql.rolelock.stripes locks (rounded up to a
+ * power of two) are shared by all roles, thus two roles rarely share one.
+ */
+final class RoleLocks implements RoleLocksMXBean {
+
+	static final String OBJECT_NAME = "ch.pam_exchange.pam_tc.postgresql:type=RoleLocks";
+
+	private static final int STRIPES = powerOfTwo(ExtensionProperties.getInt("postgresql.rolelock.stripes", 1024));
+	private static final long MAX_WAIT = ExtensionProperties.getLong("postgresql.rolelock.maxWait", 10000);
+
+	private static final RoleLocks INSTANCE = new RoleLocks();
+
+	static RoleLocks getInstance() {
+		return INSTANCE;
+	}
+
+	private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+	private final LongAdder acquired = new LongAdder();
+	private final LongAdder contended = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+
+	private RoleLocks() {
+		for (int i = 0; i < STRIPES; i++) {
+			this.locks[i] = new ReentrantLock(true);
+		}
+	}
+
+	/*
+	 * Thrown when the role is not unlocked within maxWait
+	 */
+	static final class BusyException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		BusyException(String hostKey, String role) {
+			super("Update of role '" + role + "' on " + hostKey + " still running after " + MAX_WAIT + " ms");
+		}
+	}
+
+	/**
+	 * Lock the role. Every successful call must be followed by a call to
+	 * unlock() of the returned lock.
+	 *
+	 * @param hostKey host:port
+	 * @throws BusyException if the role is not unlocked within maxWait
+	 */
+	ReentrantLock lock(String hostKey, String role) throws BusyException, InterruptedException {
+		final ReentrantLock lock = this.locks[stripe(hostKey, role)];
+		/* tryLock() would not wait its turn */
+		if (!lock.tryLock(0, TimeUnit.MILLISECONDS)) {
+			this.contended.increment();
+			if (!lock.tryLock(MAX_WAIT, TimeUnit.MILLISECONDS)) {
+				this.timeouts.increment();
+				throw new BusyException(hostKey, role);
+			}
+		}
+		this.acquired.increment();
+		return lock;
+	}
+
+	private static int powerOfTwo(int n) {
+		return n <= 1 ? 1 : Integer.highestOneBit(Math.min(n - 1, 1 << 16)) << 1;
+	}
+
+	private static int stripe(String hostKey, String role) {
+		int h = hostKey.hashCode() * 31 + role.hashCode();
+		h ^= h >>> 16;
+		return h & (STRIPES - 1);
+	}
+
+	/*
+	 * MXBean attributes
+	 */
+	@Override
+	public int getStripes() {
+		return STRIPES;
+	}
+
+	@Override
+	public long getAcquired() {
+		return this.acquired.sum();
+	}
+
+	@Override
+	public long getContended() {
+		return this.contended.sum();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return this.timeouts.sum();
+	}
+}
@@ -0,0 +1,15 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+/*
+ * Statistics of the per-role locks of password updates, published with JMX
+ */
+public interface RoleLocksMXBean {
+
+	int getStripes();
+
+	long getAcquired();
+
+	long getContended();
+
+	long getTimeouts();
+}
@@ -0,0 +1,114 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.api.exception.ExtensionException;
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+import com.ca.pam.extensions.core.util.MessageConstants;
+
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/*
+ * Roles of a server, for onboarding the accounts of a server in bulk.
+ * URL mapping is /roles.
+ *
+ * The body is a credential verification request, the roles are read
+ * logged in with its account or, with change process other, with its
+ * master account. The response is newline delimited JSON with one line per
+ * role (see RoleCursor), written while the roles are read from the server,
+ * at most postgresql.roles.fetchSize roles are held in memory. A failure
+ * after the first line is reported by a last line with success false and
+ * the message code and args.
+ */
+@Path("roles")
+public class Roles {
+
+	private static final Logger LOGGER = Logger.getLogger(Roles.class.getName());
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final String NDJSON = "application/x-ndjson";
+
+	private static final int FETCH_SIZE = Math.max(1, ExtensionProperties.getInt("postgresql.roles.fetchSize", 1000));
+
+	@POST
+	@Consumes(MediaType.TEXT_PLAIN)
+	@Produces(NDJSON)
+	public Response getRoles(InputStream body) {
+		final long methodStartTime = System.currentTimeMillis();
+		final byte[] json;
+		try {
+			json = AccountRequest.readBody(body, AccountRequest.MAX_BODY_SIZE);
+		}
+		catch (ExtensionException e) {
+			/* the only ExtensionException of readBody */
+			LOGGER.severe(() -> LoggerWrapper.logMessage("Role request larger than " + AccountRequest.MAX_BODY_SIZE + " bytes."));
+			throw e;
+		}
+		catch (Exception e) {
+			LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to read role request."));
+			throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
+		}
+		final AccountRequest request;
+		try {
+			request = AccountRequest.parse(json);
+		}
+		catch (ExtensionException e) {
+			LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to parse role request."));
+			throw e;
+		}
+		catch (Exception e) {
+			LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to parse role request."));
+			throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
+		}
+		if (request.application == null || request.application.hostName.isEmpty() || request.userName.isEmpty() || request.password.isEmpty()) {
+			LOGGER.severe(() -> LoggerWrapper.logMessage("Missing mandatory arguments in role request"));
+			throw new ExtensionException(MessageConstants.MISSING_ARGUMENTS, false, "hostname, userName, password");
+		}
+
+		/*
+		 * Login errors are answered as for a verify, before the response
+		 * is started
+		 */
+		final PostgreSQL postgresql = new PostgreSQL(request);
+		final RoleCursor cursor;
+		try {
+			cursor = postgresql.openRoleCursor(FETCH_SIZE);
+		}
+		catch (Exception e) {
+			LOGGER.info(() -> LoggerWrapper.logMessage("Roles of " + postgresql.getHostKey() + " as '" + postgresql.getLoginUsername() + "' - Not OK"));
+			final PostgreSQL.Failure failure = postgresql.classifyException(e, postgresql.getLoginUsername());
+			throw new ExtensionException(failure.getCode(), false, failure.getArgs());
+		}
+
+		StreamingOutput stream = output -> {
+			try (RoleCursor roles = cursor) {
+				roles.writeTo(output);
+			}
+			catch (SQLException e) {
+				final PostgreSQL.Failure failure = postgresql.classifyException(e, postgresql.getLoginUsername());
+				final Map<String, Object> entry = new LinkedHashMap<>();
+				entry.put("success", false);
+				entry.put("code", failure.getCode());
+				entry.put("args", failure.getArgs());
+				output.write(MAPPER.writeValueAsBytes(entry));
+				output.write('\n');
+				output.flush();
+			}
+			LOGGER.info(() -> LoggerWrapper.logMessage("Duration of call to method getRoles for " + cursor.getCount() + " roles of "
+					+ postgresql.getHostKey() + " = " + (System.currentTimeMillis() - methodStartTime) + " ms."));
+		};
+		return Response.status(Response.Status.OK).entity(stream).build();
+	}
+}
@@ -0,0 +1,120 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * SCRAM-SHA-256 key derivation (RFC 5802, RFC 7677)
+ */
+final class Scram {
+
+	static final String MECHANISM = "SCRAM-SHA-256";
+
+	/*
+	 * Defaults of PostgreSQL (scram_iterations, SCRAM_DEFAULT_SALT_LEN)
+	 */
+	static final int DEFAULT_ITERATIONS = 4096;
+	static final int SALT_LENGTH = 16;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private Scram() {
+	}
+
+	/*
+	 * Keys derived from the password, salt and iteration count
+	 */
+	static final class Keys {
+		final byte[] clientKey;
+		final byte[] storedKey;
+		final byte[] serverKey;
+
+		Keys(byte[] clientKey, byte[] storedKey, byte[] serverKey) {
+			this.clientKey = clientKey;
+			this.storedKey = storedKey;
+			this.serverKey = serverKey;
+		}
+	}
+
+	/**
+	 * Derive the client and server keys. The PBKDF2 step is the expensive
+	 * part of a SCRAM login.
+	 */
+	static Keys deriveKeys(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+		final byte[] saltedPassword = saltedPassword(password, salt, iterations);
+		final byte[] clientKey = hmac(saltedPassword, "Client Key".getBytes(StandardCharsets.US_ASCII));
+		final byte[] storedKey = MessageDigest.getInstance("SHA-256").digest(clientKey);
+		final byte[] serverKey = hmac(saltedPassword, "Server Key".getBytes(StandardCharsets.US_ASCII));
+		return new Keys(clientKey, storedKey, serverKey);
+	}
+
+	/**
+	 * Verifier as stored by PostgreSQL in pg_authid.rolpassword, with a
+	 * random salt
+	 * SCRAM-SHA-256$<iterations>:<salt>$<StoredKey>:<ServerKey>
+	 */
+	static String verifier(String password, int iterations) throws GeneralSecurityException {
+		final byte[] salt = new byte[SALT_LENGTH];
+		RANDOM.nextBytes(salt);
+		return verifier(password, salt, iterations);
+	}
+
+	static String verifier(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+		final Keys keys = deriveKeys(password, salt, iterations);
+		final Base64.Encoder base64 = Base64.getEncoder();
+		return MECHANISM + "$" + iterations + ":" + base64.encodeToString(salt)
+				+ "$" + base64.encodeToString(keys.storedKey) + ":" + base64.encodeToString(keys.serverKey);
+	}
+
+	/*
+	 * Hi(Normalize(password), salt, i) = PBKDF2 with HMAC-SHA-256
+	 */
+	static byte[] saltedPassword(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+		PBEKeySpec spec = new PBEKeySpec(normalize(password).toCharArray(), salt, iterations, 256);
+		try {
+			return factory.generateSecret(spec).getEncoded();
+		}
+		finally {
+			spec.clearPassword();
+		}
+	}
+
+	static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(key, "HmacSHA256"));
+		return mac.doFinal(data);
+	}
+
+	static byte[] xor(byte[] a, byte[] b) {
+		byte[] result = new byte[a.length];
+		for (int i = 0; i < a.length; i++) {
+			result[i] = (byte) (a[i] ^ b[i]);
+		}
+		return result;
+	}
+
+	/*
+	 * SASLprep (RFC 4013), the password as is when it is not valid for
+	 * SASLprep, as PostgreSQL does. Plain ASCII passwords are never changed.
+	 */
+	static String normalize(String password) {
+		boolean ascii = true;
+		for (int i = 0; i < password.length() && ascii; i++) {
+			ascii = password.charAt(i) < 0x80;
+		}
+		if (ascii)
+			return password;
+
+		final String prepared = SaslPrep.prepare(password);
+		return prepared == null ? password : prepared;
+	}
+}
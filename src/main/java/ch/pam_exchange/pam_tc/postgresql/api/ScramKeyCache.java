@@ -0,0 +1,84 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+/*
+ * Cache of SCRAM-SHA-256 keys derived from a password.
+ *
+ * The PBKDF2 derivation with the server's iteration count is the expensive
+ * part of a SCRAM login. The salt and iteration count are those of the role
+ * verifier on the server, thus verifying the same credentials against other
+ * databases or replicas of a cluster gives the same keys.
+ *
+ * The key of the cache is a salted fingerprint of (password, salt, iterations).
+ * The cached client and server keys allow a login as the role, thus they are
+ * kept for at most postgresql.scram.cacheTtl milliseconds and never logged.
+ */
+final class ScramKeyCache implements ScramKeyCacheMXBean {
+
+	static final String OBJECT_NAME = "ch.pam_exchange.pam_tc.postgresql:type=ScramKeyCache";
+
+	private static final int MAX_ENTRIES = ExtensionProperties.getInt("postgresql.scram.cacheSize", 1000);
+	private static final long TTL = ExtensionProperties.getLong("postgresql.scram.cacheTtl", 600000);
+
+	private static final ScramKeyCache INSTANCE = new ScramKeyCache();
+
+	static ScramKeyCache getInstance() {
+		return INSTANCE;
+	}
+
+	private final LruCache<String, Scram.Keys> cache = new LruCache<>(MAX_ENTRIES, TTL);
+
+	private ScramKeyCache() {
+	}
+
+	/*
+	 * Same as Scram.deriveKeys, using the cache
+	 */
+	Scram.Keys deriveKeys(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+		if (MAX_ENTRIES <= 0 || TTL <= 0)
+			return Scram.deriveKeys(password, salt, iterations);
+
+		final String key = Fingerprint.of(password, Base64.getEncoder().encodeToString(salt), Integer.toString(iterations));
+		Scram.Keys keys = this.cache.get(key);
+		if (keys == null) {
+			keys = Scram.deriveKeys(password, salt, iterations);
+			this.cache.put(key, keys);
+		}
+		return keys;
+	}
+
+	void clear() {
+		this.cache.clear();
+	}
+
+	/*
+	 * MXBean attributes
+	 */
+	@Override
+	public int getSize() {
+		this.cache.purge();
+		return this.cache.size();
+	}
+
+	@Override
+	public long getHits() {
+		return this.cache.getHits();
+	}
+
+	@Override
+	public long getMisses() {
+		return this.cache.getMisses();
+	}
+
+	@Override
+	public long getEvictions() {
+		return this.cache.getEvictions();
+	}
+
+	@Override
+	public long getExpirations() {
+		return this.cache.getExpirations();
+	}
+}
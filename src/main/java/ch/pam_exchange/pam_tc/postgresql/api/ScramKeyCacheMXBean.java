@@ -0,0 +1,17 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+/*
+ * Statistics of the SCRAM key cache, published with JMX
+ */
+public interface ScramKeyCacheMXBean {
+
+	int getSize();
+
+	long getHits();
+
+	long getMisses();
+
+	long getEvictions();
+
+	long getExpirations();
+}
@@ -0,0 +1,119 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/*
+ * Coalescing of identical concurrent credential requests.
+ *
+ * PAM retries and parallel jobs may send the same verify or update while
+ * the first one is still running. The first request runs, identical
+ * requests arriving before it is done wait for its result instead of
+ * logging in to the server again. Requests are identical when operation,
+ * host, port, database, role and passwords are the same, compared by a
+ * salted fingerprint, see PostgreSQL.getFlightKey(). A request arriving
+ * after the first one is done runs again.
+ *
+ * postgresql.singleflight.enabled   false to run each request on its own
+ */
+final class SingleFlight implements SingleFlightMXBean {
+
+	static final String OBJECT_NAME = "ch.pam_exchange.pam_tc.postgresql:type=SingleFlight";
+
+	private static final boolean ENABLED = ExtensionProperties.getBoolean("postgresql.singleflight.enabled", true);
+
+	private static final SingleFlight INSTANCE = new SingleFlight();
+
+	static SingleFlight getInstance() {
+		return INSTANCE;
+	}
+
+	private final Map<String, CompletableFuture<PostgreSQL.Failure>> inFlight = new ConcurrentHashMap<>();
+
+	private final LongAdder executions = new LongAdder();
+	private final LongAdder coalescedVerifies = new LongAdder();
+	private final LongAdder coalescedUpdates = new LongAdder();
+
+	private SingleFlight() {
+	}
+
+	/**
+	 * Run the request, or wait for the identical request running
+	 *
+	 * @param operation PhaseMetrics.OPERATION_VERIFY or OPERATION_UPDATE
+	 * @param key       key of the request, starting with the operation
+	 * @return the result of the request, null if successful
+	 */
+	PostgreSQL.Failure run(String operation, String key, Supplier<PostgreSQL.Failure> request) {
+		if (!ENABLED)
+			return request.get();
+
+		final CompletableFuture<PostgreSQL.Failure> flight = new CompletableFuture<>();
+		final CompletableFuture<PostgreSQL.Failure> running = this.inFlight.putIfAbsent(key, flight);
+		if (running != null) {
+			if (PhaseMetrics.OPERATION_UPDATE.equals(operation))
+				this.coalescedUpdates.increment();
+			else
+				this.coalescedVerifies.increment();
+			return await(running);
+		}
+
+		this.executions.increment();
+		try {
+			final PostgreSQL.Failure failure = request.get();
+			flight.complete(failure);
+			return failure;
+		}
+		catch (RuntimeException | Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			this.inFlight.remove(key, flight);
+		}
+	}
+
+	private static PostgreSQL.Failure await(CompletableFuture<PostgreSQL.Failure> running) {
+		try {
+			return running.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new PostgreSQL.Failure(PostgreSQLMessageConstants.ERR_EXCEPTION);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/*
+	 * MXBean attributes
+	 */
+	@Override
+	public int getInFlight() {
+		return this.inFlight.size();
+	}
+
+	@Override
+	public long getExecutions() {
+		return this.executions.sum();
+	}
+
+	@Override
+	public long getCoalescedVerifies() {
+		return this.coalescedVerifies.sum();
+	}
+
+	@Override
+	public long getCoalescedUpdates() {
+		return this.coalescedUpdates.sum();
+	}
+}
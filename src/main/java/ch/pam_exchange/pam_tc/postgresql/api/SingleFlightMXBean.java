@@ -0,0 +1,15 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+/*
+ * Statistics of the coalescing of duplicate requests, published with JMX
+ */
+public interface SingleFlightMXBean {
+
+	int getInFlight();
+
+	long getExecutions();
+
+	long getCoalescedVerifies();
+
+	long getCoalescedUpdates();
+}
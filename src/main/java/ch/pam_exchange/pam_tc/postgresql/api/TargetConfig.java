@@ -0,0 +1,209 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/*
+ * Settings of a target application and its server.
+ *
+ * The standby hosts of a cluster are given in the application attribute
+ * standbyHosts, comma separated host or host:port, the port of the
+ * application if not given, [address]:port for an IPv6 address. Invalid
+ * entries are left out with a warning. Hostnames are kept without the
+ * brackets of an IPv6 address, they are added for the JDBC URL only.
+ *
+ * The extended attributes are parsed once per application and content. The
+ * parsed settings are cached by application name, hostname and the raw
+ * attribute values, thus a changed application is parsed again. Invalid or
+ * missing numbers fall back to the defaults without exceptions, the warning
+ * is logged once when the settings are parsed.
+ */
+final class TargetConfig {
+
+	private static final Logger LOGGER = Logger.getLogger(TargetConfig.class.getName());
+
+	static final int DEFAULT_PORT = 5432;
+	static final long DEFAULT_CONNECT_TIMEOUT = 5000;
+	static final long DEFAULT_LOGIN_TIMEOUT = 5000;
+
+	private static final String FIELD_PORT = "port";
+	private static final String FIELD_CONNECTTIMEOUT = "connectionTimeout";
+	private static final String FIELD_LOGINTIMEOUT = "loginTimeout";
+	private static final String FIELD_DATABASE = "database";
+	private static final String FIELD_USETLS = "useTLS";
+	private static final String FIELD_STANDBYHOSTS = "standbyHosts";
+
+	private static final String[] NO_HOSTS = new String[0];
+	private static final int[] NO_PORTS = new int[0];
+
+	private static final int CACHE_SIZE = ExtensionProperties.getInt("postgresql.config.cacheSize", 1000);
+	private static final LruCache<Key, TargetConfig> CACHE = new LruCache<>(CACHE_SIZE, 0);
+
+	final String hostname;
+	final int port;
+	final long connectTimeout;
+	final long loginTimeout;
+	final String database;
+	final boolean useTLS;
+	final String[] standbyHostnames;
+	final int[] standbyPorts;
+
+	private TargetConfig(String hostname, int port, long connectTimeout, long loginTimeout, String database, boolean useTLS,
+			String[] standbyHostnames, int[] standbyPorts) {
+		this.hostname = hostname;
+		this.port = port;
+		this.connectTimeout = connectTimeout;
+		this.loginTimeout = loginTimeout;
+		this.database = database;
+		this.useTLS = useTLS;
+		this.standbyHostnames = standbyHostnames;
+		this.standbyPorts = standbyPorts;
+	}
+
+	/*
+	 * Raw values identifying the application and its content
+	 */
+	private static final class Key {
+		private final String[] values;
+		private final int hash;
+
+		private Key(String... values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(this.values, ((Key) o).values);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+	}
+
+	/**
+	 * Settings of the application, parsed or from the cache
+	 */
+	static TargetConfig of(AccountRequest.Application application) {
+		final Key key = new Key(
+				application.name,
+				application.hostName,
+				application.port,
+				application.connectionTimeout,
+				application.loginTimeout,
+				application.database,
+				application.useTLS,
+				application.standbyHosts);
+
+		TargetConfig config = CACHE.get(key);
+		if (config == null) {
+			config = parse(key.values);
+			CACHE.put(key, config);
+		}
+		return config;
+	}
+
+	private static TargetConfig parse(String[] values) {
+		final String hostname = unbracket(values[1]);
+		LOGGER.fine(LoggerWrapper.logMessage("hostname= " + hostname));
+
+		long port = parseUnsigned(values[2]);
+		if (port < 0 || port > 65535) {
+			LOGGER.warning(LoggerWrapper.logMessage("Using default port"));
+			port = DEFAULT_PORT;
+		}
+		LOGGER.fine(LoggerWrapper.logMessage(FIELD_PORT + "= " + port));
+
+		long connectTimeout = parseUnsigned(values[3]);
+		if (connectTimeout < 0) {
+			LOGGER.warning(LoggerWrapper.logMessage("Using default connectTimeout"));
+			connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+		}
+		LOGGER.fine(LoggerWrapper.logMessage(FIELD_CONNECTTIMEOUT + "= " + connectTimeout));
+
+		long loginTimeout = parseUnsigned(values[4]);
+		if (loginTimeout < 0) {
+			LOGGER.warning(LoggerWrapper.logMessage("Using default loginTimeout"));
+			loginTimeout = DEFAULT_LOGIN_TIMEOUT;
+		}
+		LOGGER.fine(LoggerWrapper.logMessage(FIELD_LOGINTIMEOUT + "= " + loginTimeout));
+
+		final String database = values[5];
+		LOGGER.fine(LoggerWrapper.logMessage(FIELD_DATABASE + "= " + database));
+
+		final boolean useTLS = "true".equals(values[6]);
+		LOGGER.fine(LoggerWrapper.logMessage(FIELD_USETLS + "= " + useTLS));
+
+		String[] standbyHostnames = NO_HOSTS;
+		int[] standbyPorts = NO_PORTS;
+		if (values[7] != null && !values[7].trim().isEmpty()) {
+			final String[] entries = values[7].split(",");
+			final List<String> hostnames = new ArrayList<>(entries.length);
+			final List<Integer> ports = new ArrayList<>(entries.length);
+			for (String entry : entries) {
+				String host = entry.trim();
+				long hostPort = port;
+				/* an IPv6 address with a port is written [address]:port */
+				final int colon = host.lastIndexOf(':');
+				if (colon > 0 && (host.indexOf(':') == colon || host.charAt(colon - 1) == ']')) {
+					hostPort = parseUnsigned(host.substring(colon + 1));
+					host = host.substring(0, colon);
+				}
+				host = unbracket(host);
+				if (host.isEmpty() || host.indexOf('[') >= 0 || host.indexOf(']') >= 0 || hostPort < 0 || hostPort > 65535) {
+					LOGGER.warning(LoggerWrapper.logMessage("Ignoring invalid standby host '" + entry.trim() + "'"));
+					continue;
+				}
+				hostnames.add(host);
+				ports.add((int) hostPort);
+			}
+			standbyHostnames = hostnames.toArray(NO_HOSTS);
+			standbyPorts = ports.stream().mapToInt(Integer::intValue).toArray();
+		}
+		LOGGER.fine(LoggerWrapper.logMessage(FIELD_STANDBYHOSTS + "= " + Arrays.toString(standbyHostnames)));
+
+		return new TargetConfig(hostname, (int) port, connectTimeout, loginTimeout, database, useTLS, standbyHostnames, standbyPorts);
+	}
+
+	/*
+	 * An IPv6 address without its brackets
+	 */
+	private static String unbracket(String host) {
+		if (host != null && host.length() > 1 && host.charAt(0) == '[' && host.charAt(host.length() - 1) == ']')
+			return host.substring(1, host.length() - 1);
+		return host;
+	}
+
+	/*
+	 * Host as written in a URL, an IPv6 address in brackets
+	 */
+	static String urlHost(String host) {
+		return host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+	}
+
+	/*
+	 * Decimal digits only, -1 if missing, not a number or too large
+	 */
+	static long parseUnsigned(String value) {
+		if (value == null || value.isEmpty() || value.length() > 18)
+			return -1;
+		long result = 0;
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	static void clearCache() {
+		CACHE.clear();
+	}
+}
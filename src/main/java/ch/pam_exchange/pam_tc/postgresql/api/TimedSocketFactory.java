@@ -0,0 +1,71 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+import javax.net.SocketFactory;
+
+/*
+ * Socket factory given to the JDBC driver (connection property socketFactory).
+ * Measures the TCP connect of the connection attempt named by the
+ * socketFactoryArg connection property and applies its connect timeout in
+ * milliseconds, the driver only has whole seconds.
+ */
+public class TimedSocketFactory extends SocketFactory {
+
+	private final ConnectionTiming timing;
+
+	public TimedSocketFactory(String timingId) {
+		this.timing = ConnectionTiming.lookup(timingId);
+	}
+
+	@Override
+	public Socket createSocket() {
+		return new TimedSocket(this.timing);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		return SocketFactory.getDefault().createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		return SocketFactory.getDefault().createSocket(host, port, localHost, localPort);
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		return SocketFactory.getDefault().createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		return SocketFactory.getDefault().createSocket(address, port, localAddress, localPort);
+	}
+
+	private static final class TimedSocket extends Socket {
+		private final ConnectionTiming timing;
+
+		private TimedSocket(ConnectionTiming timing) {
+			this.timing = timing;
+		}
+
+		@Override
+		public void connect(SocketAddress endpoint, int timeout) throws IOException {
+			final long start = System.nanoTime();
+			boolean connected = false;
+			try {
+				super.connect(endpoint, this.timing != null && this.timing.getConnectTimeout() > 0 ? this.timing.getConnectTimeout() : timeout);
+				connected = true;
+			}
+			finally {
+				if (this.timing != null) {
+					this.timing.setConnect(System.nanoTime() - start, connected);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+/*
+ * SSL contexts shared by all TLS connections to the PostgreSQL servers.
+ *
+ * One SSLContext is kept per trust configuration, thus its client session
+ * cache lets a new connection to a server resume the TLS session of a
+ * previous connection instead of a full handshake. A stock PostgreSQL
+ * server turns session caching and session tickets off (SSL_SESS_CACHE_OFF,
+ * SSL_OP_NO_TICKET), thus against it every handshake is full. Sessions are
+ * resumed only by a server, or a TLS proxy in front of it, allowing it.
+ *
+ * postgresql.tls.validation, the JDBC sslmode in brackets
+ *   none - any server certificate is accepted, as NonValidatingFactory (require)
+ *   ca   - the certificate must be issued by a trusted CA (verify-ca)
+ *   full - as ca, and the certificate must match the hostname (verify-full)
+ * postgresql.tls.trustStore, trustStorePassword, trustStoreType
+ *   trusted CAs for ca and full, the JDK cacerts if not set
+ *
+ * A full handshake checks the server certificate, a resumed one does not.
+ * The trust manager marks the socket when it is called, which tells the
+ * two apart when the handshake is done. The sockets are held weakly, a
+ * socket whose handshake is never reported done (e.g. the driver trying
+ * several hosts of a cluster) does not stay in the map.
+ */
+final class TlsContexts implements TlsContextsMXBean {
+
+	private static final Logger LOGGER = Logger.getLogger(TlsContexts.class.getName());
+
+	static final String OBJECT_NAME = "ch.pam_exchange.pam_tc.postgresql:type=Tls";
+
+	static final String VALIDATION_NONE = "none";
+	static final String VALIDATION_CA = "ca";
+	static final String VALIDATION_FULL = "full";
+
+	private static final String VALIDATION = ExtensionProperties.getString("postgresql.tls.validation", VALIDATION_NONE).trim().toLowerCase();
+	private static final String TRUSTSTORE = ExtensionProperties.getString("postgresql.tls.trustStore", "").trim();
+	private static final String TRUSTSTORE_PASSWORD = ExtensionProperties.getString("postgresql.tls.trustStorePassword", "");
+	private static final String TRUSTSTORE_TYPE = ExtensionProperties.getString("postgresql.tls.trustStoreType", KeyStore.getDefaultType()).trim();
+	private static final int SESSION_CACHE_SIZE = ExtensionProperties.getInt("postgresql.tls.sessionCacheSize", 1000);
+	private static final int SESSION_TIMEOUT = ExtensionProperties.getInt("postgresql.tls.sessionTimeout", 3600);
+
+	private static final TlsContexts INSTANCE = new TlsContexts();
+
+	static TlsContexts getInstance() {
+		return INSTANCE;
+	}
+
+	private final Map<String, SSLContext> contexts = new ConcurrentHashMap<>();
+
+	/*
+	 * Sockets with a handshake in progress, true once the server
+	 * certificate was checked. Guarded by itself.
+	 */
+	private final Map<Socket, Boolean> handshakes = new WeakHashMap<>();
+
+	private final LongAdder fullHandshakes = new LongAdder();
+	private final LongAdder resumedHandshakes = new LongAdder();
+	private final LongAdder failedHandshakes = new LongAdder();
+
+	private TlsContexts() {
+	}
+
+	/*
+	 * Validation configured, none, ca or full
+	 */
+	static String getValidation() {
+		if (VALIDATION_CA.equals(VALIDATION) || VALIDATION_FULL.equals(VALIDATION))
+			return VALIDATION;
+		return VALIDATION_NONE;
+	}
+
+	/*
+	 * sslmode of the JDBC driver for the configured validation
+	 */
+	static String getSslMode() {
+		switch (getValidation()) {
+		case VALIDATION_CA:
+			return "verify-ca";
+		case VALIDATION_FULL:
+			return "verify-full";
+		default:
+			return "require";
+		}
+	}
+
+	/*
+	 * The shared context of a trust configuration
+	 */
+	SSLContext getContext(String validation) throws GeneralSecurityException {
+		SSLContext context = this.contexts.get(validation);
+		if (context == null) {
+			synchronized (this.contexts) {
+				context = this.contexts.get(validation);
+				if (context == null) {
+					context = this.createContext(validation);
+					this.contexts.put(validation, context);
+				}
+			}
+		}
+		return context;
+	}
+
+	private SSLContext createContext(String validation) throws GeneralSecurityException {
+		X509ExtendedTrustManager delegate = null;
+		if (!VALIDATION_NONE.equals(validation)) {
+			KeyStore trustStore = null;
+			if (!TRUSTSTORE.isEmpty()) {
+				trustStore = KeyStore.getInstance(TRUSTSTORE_TYPE);
+				try (InputStream in = Files.newInputStream(Paths.get(TRUSTSTORE))) {
+					trustStore.load(in, TRUSTSTORE_PASSWORD.isEmpty() ? null : TRUSTSTORE_PASSWORD.toCharArray());
+				}
+				catch (IOException e) {
+					throw new GeneralSecurityException("Cannot read trust store '" + TRUSTSTORE + "'", e);
+				}
+			}
+			TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+			tmf.init(trustStore);
+			for (TrustManager tm : tmf.getTrustManagers()) {
+				if (tm instanceof X509ExtendedTrustManager) {
+					delegate = (X509ExtendedTrustManager) tm;
+					break;
+				}
+			}
+			if (delegate == null)
+				throw new GeneralSecurityException("No X509 trust manager");
+		}
+
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(null, new TrustManager[] { new CountingTrustManager(delegate) }, null);
+		context.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+		context.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT);
+		LOGGER.fine(LoggerWrapper.logMessage("TLS context created, validation= " + validation));
+		return context;
+	}
+
+	/*
+	 * Host name check for the protocol probe with validation full, the JDBC
+	 * driver does its own with sslmode=verify-full
+	 */
+	static void configure(SSLSocket socket, String validation) {
+		if (VALIDATION_FULL.equals(validation)) {
+			SSLParameters params = socket.getSSLParameters();
+			params.setEndpointIdentificationAlgorithm("HTTPS");
+			socket.setSSLParameters(params);
+		}
+	}
+
+	/*
+	 * A handshake is about to start on the socket
+	 */
+	void started(Socket socket) {
+		synchronized (this.handshakes) {
+			this.handshakes.put(socket, Boolean.FALSE);
+		}
+	}
+
+	/**
+	 * The handshake on the socket is done
+	 *
+	 * @return true if the session was resumed
+	 */
+	boolean completed(Socket socket, boolean success) {
+		final Boolean certificateChecked;
+		synchronized (this.handshakes) {
+			certificateChecked = this.handshakes.remove(socket);
+		}
+		if (certificateChecked == null)
+			return false;
+		if (!success) {
+			this.failedHandshakes.increment();
+			return false;
+		}
+		if (certificateChecked) {
+			this.fullHandshakes.increment();
+			return false;
+		}
+		this.resumedHandshakes.increment();
+		return true;
+	}
+
+	private void certificateChecked(Socket socket) {
+		if (socket == null)
+			return;
+		synchronized (this.handshakes) {
+			this.handshakes.replace(socket, Boolean.TRUE);
+		}
+	}
+
+	/*
+	 * Trust manager marking full handshakes, delegating the validation or,
+	 * without a delegate, accepting any certificate
+	 */
+	private final class CountingTrustManager extends X509ExtendedTrustManager {
+		private final X509ExtendedTrustManager delegate;
+
+		private CountingTrustManager(X509ExtendedTrustManager delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+			certificateChecked(socket);
+			if (this.delegate != null)
+				this.delegate.checkServerTrusted(chain, authType, socket);
+		}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+			if (this.delegate != null)
+				this.delegate.checkServerTrusted(chain, authType, engine);
+		}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+			if (this.delegate != null)
+				this.delegate.checkServerTrusted(chain, authType);
+		}
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+			throw new CertificateException("Client certificates are not accepted");
+		}
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+			throw new CertificateException("Client certificates are not accepted");
+		}
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+			throw new CertificateException("Client certificates are not accepted");
+		}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return this.delegate != null ? this.delegate.getAcceptedIssuers() : new X509Certificate[0];
+		}
+	}
+
+	/*
+	 * MXBean attributes
+	 */
+	@Override
+	public String getValidationMode() {
+		return getValidation();
+	}
+
+	@Override
+	public long getFullHandshakes() {
+		return this.fullHandshakes.sum();
+	}
+
+	@Override
+	public long getResumedHandshakes() {
+		return this.resumedHandshakes.sum();
+	}
+
+	@Override
+	public long getFailedHandshakes() {
+		return this.failedHandshakes.sum();
+	}
+
+	@Override
+	public double getResumptionRate() {
+		final long full = this.fullHandshakes.sum();
+		final long resumed = this.resumedHandshakes.sum();
+		return full + resumed == 0 ? 0.0 : (double) resumed / (full + resumed);
+	}
+}
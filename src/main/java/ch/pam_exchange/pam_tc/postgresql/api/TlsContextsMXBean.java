@@ -0,0 +1,17 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+/*
+ * TLS handshake statistics, published with JMX
+ */
+public interface TlsContextsMXBean {
+
+	String getValidationMode();
+
+	long getFullHandshakes();
+
+	long getResumedHandshakes();
+
+	long getFailedHandshakes();
+
+	double getResumptionRate();
+}
@@ -16,31 +16,151 @@
 package ch.pam_exchange.pam_tc.postgresql.api;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 
 import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
 
 import com.ca.pam.extensions.core.util.UIDefinitionManager;
 import com.ca.pam.extensions.core.model.LoggerWrapper;
 
+/*
+ * UI definitions of the account and application, from uiDefinitions.json.
+ *
+ * The file does not change while the connector is deployed. The account
+ * and application definitions are serialized once and served from memory
+ * with a strong ETag, a request with a matching If-None-Match is answered
+ * with 304 Not Modified. The cache is dropped when the connector is
+ * undeployed.
+ */
 @Path("uiDefinitions")
 public class UIDefinitions {
 	private static final Logger LOGGER = Logger.getLogger(UIDefinitions.class.getName());
+
+	private static final int MAX_AGE = ExtensionProperties.getInt("postgresql.uidefinitions.maxAge", 0);
+
+	private static final Map<String, Definition> CACHE = new ConcurrentHashMap<>();
+
+	/*
+	 * Serialized definition and its entity tag
+	 */
+	static final class Definition {
+		private final byte[] body;
+		private final EntityTag tag;
+
+		private Definition(byte[] body, EntityTag tag) {
+			this.body = body;
+			this.tag = tag;
+		}
+	}
 	
     @GET
     @Path("/{uiDefinitionType}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getUIDefinitions (@PathParam("uiDefinitionType") String uiDefinitionType) throws JSONException, IOException{
-        LOGGER.log(Level.INFO, LoggerWrapper.logMessage("Retreive UI Definitions for " + uiDefinitionType + " type"));
-        Response response = UIDefinitionManager.getUIDefinition(uiDefinitionType);    	
-    	return response;
+    public Response getUIDefinitions (@PathParam("uiDefinitionType") String uiDefinitionType, @HeaderParam("If-None-Match") String ifNoneMatch) throws JSONException, IOException{
+        LOGGER.log(Level.FINE, () -> LoggerWrapper.logMessage("Retreive UI Definitions for " + uiDefinitionType + " type"));
+        Definition definition = getDefinition(uiDefinitionType);
+        if (definition == null) {
+            /*
+             * Other types and unexpected content are not cached
+             */
+            return UIDefinitionManager.getUIDefinition(uiDefinitionType);
+        }
+        if (matches(ifNoneMatch, definition.tag)) {
+            return Response.notModified(definition.tag).cacheControl(cacheControl()).build();
+        }
+        return Response.ok(definition.body, MediaType.APPLICATION_JSON).tag(definition.tag).cacheControl(cacheControl()).build();
     }
+
+	/*
+	 * The cached definition of account or application, loaded on first use
+	 */
+	static Definition getDefinition(String uiDefinitionType) throws JSONException, IOException {
+		if (!"account".equals(uiDefinitionType) && !"application".equals(uiDefinitionType))
+			return null;
+		Definition definition = CACHE.get(uiDefinitionType);
+		if (definition == null) {
+			definition = load(uiDefinitionType);
+			if (definition != null) {
+				Definition previous = CACHE.putIfAbsent(uiDefinitionType, definition);
+				if (previous != null)
+					definition = previous;
+			}
+		}
+		return definition;
+	}
+
+	private static Definition load(String uiDefinitionType) throws JSONException, IOException {
+		final Response response = UIDefinitionManager.getUIDefinition(uiDefinitionType);
+		if (response == null || response.getStatus() != 200)
+			return null;
+
+		final Object entity = response.getEntity();
+		final byte[] body;
+		if (entity instanceof byte[])
+			body = (byte[]) entity;
+		else if (entity instanceof String || entity instanceof JSONObject)
+			body = entity.toString().getBytes(StandardCharsets.UTF_8);
+		else
+			return null;
+
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+			final StringBuilder sb = new StringBuilder(32);
+			for (int i = 0; i < 16; i++) {
+				sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+			}
+			LOGGER.fine(() -> LoggerWrapper.logMessage("UI definitions for " + uiDefinitionType + " cached, " + body.length + " bytes"));
+			return new Definition(body, new EntityTag(sb.toString()));
+		}
+		catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * If-None-Match is a list of entity tags or *, a weak tag matches as well
+	 */
+	private static boolean matches(String ifNoneMatch, EntityTag tag) {
+		if (ifNoneMatch == null)
+			return false;
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/"))
+				candidate = candidate.substring(2);
+			if ("*".equals(candidate) || ("\"" + tag.getValue() + "\"").equals(candidate))
+				return true;
+		}
+		return false;
+	}
+
+	private static CacheControl cacheControl() {
+		CacheControl cacheControl = new CacheControl();
+		cacheControl.setPrivate(true);
+		if (MAX_AGE > 0)
+			cacheControl.setMaxAge(MAX_AGE);
+		else
+			cacheControl.setNoCache(true);
+		return cacheControl;
+	}
+
+	static void clearCache() {
+		CACHE.clear();
+	}
 }
@@ -57,7 +57,8 @@ import com.ca.pam.extensions.core.util.ValidationManager;
  * Both methods validate target account and application data based on the 
  * constratints defined in uiDefinitions.json file. 
  *
- * These methods call performCustomAccountValidations to do custom validations
+ * Both methods run the same pipeline, validate, which calls
+ * performCustomAccountValidations to do custom validations
  * on Account and performCustomApplicationValidations to do custom validations
  * on Application.
  * These methods are stub method which has to be implemented
@@ -76,75 +77,52 @@ public class Validations {
   @Consumes(MediaType.TEXT_PLAIN)
   @Produces(MediaType.APPLICATION_JSON)
   public Response validateCreateData(@PathParam("validationType") String validationType, String jsonObject) throws Exception{
+    return validate("validateCreateData", validationType, jsonObject);
+  }
+
+  @PUT
+  @Path("/{validationType}")
+  @Consumes(MediaType.TEXT_PLAIN)
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response validateUpdateData(@PathParam("validationType") String validationType, String jsonObject) throws Exception{
+    return validate("validateUpdateData", validationType, jsonObject);
+  }
 
-    String duration;
+  /**
+   * Validation pipeline of create and update. The request is mapped to a
+   * TargetAccount or TargetApplication, thus a body that cannot be mapped is
+   * rejected, validated against the constraints of uiDefinitions.json and
+   * passed to the custom validation.
+   * @param method -- name of the service method, for logging
+   * @param validationType -- account or application
+   * @param jsonObject -- request body
+   * @return success response
+   * @throws ExtensionException with the errors of both stages
+   */
+  private Response validate(String method, String validationType, String jsonObject) throws ExtensionException {
     final long methodStartTime = System.currentTimeMillis();
-    long methodEndTime;
     
-    ExtensionException extensionException = null;
-    TargetAccount targetAccount = new TargetAccount();
-    TargetApplication targetApplication = new TargetApplication();
     try {
-      if ("account".equals(validationType)) {
-          targetAccount = ConnectorJSONUtil.getTargetAccountFromJSON(jsonObject);
-      } else if ("application".equals(validationType)) {
-          targetApplication = ConnectorJSONUtil.getTargetApplicationFromJSON(jsonObject);
-      }
-      ValidationManager.validateData(validationType, jsonObject);
+      check(validationType, jsonObject);
     } catch (ExtensionException e) {
-      extensionException = e;
+      LOGGER.log(Level.INFO, () -> LoggerWrapper.logMessage("Duration of failed call to " + method + " method" 
+           + " = " + (System.currentTimeMillis() - methodStartTime) + " ms."));
+      throw e;
     } catch (Exception e) {
-      LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to validate data: "), e);
-      methodEndTime = System.currentTimeMillis();
-      duration = Long.toString(methodEndTime - methodStartTime);
-      LOGGER.log(Level.INFO, LoggerWrapper.logMessage("Duration of failed call to validateCreateData method" 
-                 + " = " + duration + " ms."));
-      throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
+      throw serverError(method, methodStartTime, e);
     }
-    try {
-        if ("account".equals(validationType)) {
-            performCustomAccountValidation(targetAccount);
-        } else if ("application".equals(validationType)) {
-            performCustomApplicationValidation(targetApplication);
-        }
-    } catch (ExtensionException e) {
-        if (extensionException != null) {
-            extensionException.addErrors(e.getErrors());
-        } else {
-            extensionException = e;
-        }
-    } catch (Exception e) {
-      LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to validate data: "), e);
-      methodEndTime = System.currentTimeMillis();
-      duration = Long.toString(methodEndTime - methodStartTime);
-      LOGGER.log(Level.INFO, LoggerWrapper.logMessage("Duration of failed call to validateCreateData method" 
-                 + " = " + duration + " ms."));
-      throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
-    }
-    if (extensionException != null) {
-        methodEndTime = System.currentTimeMillis();
-        duration = Long.toString(methodEndTime - methodStartTime);
-        LOGGER.log(Level.INFO, LoggerWrapper.logMessage("Duration of failed call to validateUpdateData method" 
-             + " = " + duration + " ms."));
-        throw extensionException;
-    } 
     ExtensionResponse response = buildSuccessResponse(true);
-    methodEndTime = System.currentTimeMillis();
-    duration = Long.toString(methodEndTime - methodStartTime);
-    LOGGER.log(Level.INFO, LoggerWrapper.logMessage("Duration of call to validateCreateData method" 
-          + " = " + duration + " ms."));
+    LOGGER.log(Level.INFO, () -> LoggerWrapper.logMessage("Duration of call to " + method + " method" 
+          + " = " + (System.currentTimeMillis() - methodStartTime) + " ms."));
     return Response.status(Response.Status.OK).entity(response).build();
   }
 
-  @PUT
-  @Path("/{validationType}")
-  @Consumes(MediaType.TEXT_PLAIN)
-  @Produces(MediaType.APPLICATION_JSON)
-  public Response validateUpdateData(@PathParam("validationType") String validationType, String jsonObject) throws Exception{
-    String duration;
-    final long methodStartTime = System.currentTimeMillis();
-    long methodEndTime;
-    
+  /**
+   * Both stages of the validation, without logging. Used by validate and
+   * by the warm-up.
+   * @throws ExtensionException with the errors of both stages
+   */
+  void check(String validationType, String jsonObject) throws Exception {
     ExtensionException extensionException = null;
     TargetAccount targetAccount = new TargetAccount();
     TargetApplication targetApplication = new TargetApplication();
@@ -154,12 +132,9 @@ public class Validations {
       } else if ("application".equals(validationType)) {
           targetApplication = ConnectorJSONUtil.getTargetApplicationFromJSON(jsonObject);
       }
-      ValidationManager.validateData(validationType, jsonObject); 
+      ValidationManager.validateData(validationType, jsonObject);
     } catch (ExtensionException e) {
       extensionException = e;
-    } catch (Exception e) {
-      LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to validate data: "), e);
-      throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
     }
     try {
         if ("account".equals(validationType)) {
@@ -173,27 +148,17 @@ public class Validations {
         } else {
             extensionException = e;
         }
-    } catch (Exception e) {
-      LOGGER.log(Level.SEVERE, LoggerWrapper.logMessage("Failed to validate data: "), e);
-      methodEndTime = System.currentTimeMillis();
-      duration = Long.toString(methodEndTime - methodStartTime);
-      LOGGER.log(Level.INFO, LoggerWrapper.logMessage("Duration of failed call to validateUpdateData method" 
-                 + " = " + duration + " ms."));
-      throw new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
     }
     if (extensionException != null) {
-        methodEndTime = System.currentTimeMillis();
-        duration = Long.toString(methodEndTime - methodStartTime);
-        LOGGER.log(Level.INFO, LoggerWrapper.logMessage("Duration of failed call to validateUpdateData method" 
-             + " = " + duration + " ms."));
         throw extensionException;
-    } 
-    ExtensionResponse response = buildSuccessResponse(true);
-    methodEndTime = System.currentTimeMillis();
-    duration = Long.toString(methodEndTime - methodStartTime);
-    LOGGER.log(Level.INFO, LoggerWrapper.logMessage("Duration of call to validateUpdateData method" 
-                 + " = " + duration + " ms."));
-    return Response.status(Response.Status.OK).entity(response).build();
+    }
+  }
+
+  private ExtensionException serverError(String method, long methodStartTime, Exception e) {
+    LOGGER.log(Level.SEVERE, e, () -> LoggerWrapper.logMessage("Failed to validate data: "));
+    LOGGER.log(Level.INFO, () -> LoggerWrapper.logMessage("Duration of failed call to " + method + " method" 
+               + " = " + (System.currentTimeMillis() - methodStartTime) + " ms."));
+    return new ExtensionException(MessageConstants.SERVER_ERROR, false, new String[0]);
   }
 
   /** Build the success response
@@ -0,0 +1,131 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Cache of recently verified credentials.
+ *
+ * A successful verify or update stores a salted fingerprint of
+ * (host, port, database, username, password, generation), never the
+ * password itself. A verify of the same credentials within
+ * postgresql.verifycache.ttl milliseconds is answered from the cache
+ * without logging in. A failed verify removes its entry.
+ *
+ * A role is one per server, not per database, thus an update gives the
+ * role on host:port a new generation, which drops its entries of all
+ * databases at once. A generation is kept as long as the entries made
+ * before it, if one is evicted earlier the cache is cleared. A verify
+ * reads the generation before logging in, thus a verify overlapping an
+ * update does not store the old password under the new generation.
+ */
+final class VerificationCache implements VerificationCacheMXBean {
+
+	static final String OBJECT_NAME = "ch.pam_exchange.pam_tc.postgresql:type=VerificationCache";
+
+	private static final long TTL = ExtensionProperties.getLong("postgresql.verifycache.ttl", 30000);
+	private static final int MAX_ENTRIES = ExtensionProperties.getInt("postgresql.verifycache.maxEntries", 10000);
+
+	private static final VerificationCache INSTANCE = new VerificationCache();
+
+	static VerificationCache getInstance() {
+		return INSTANCE;
+	}
+
+	private static final AtomicLong GENERATION = new AtomicLong();
+
+	private final LruCache<String, Boolean> cache = new LruCache<>(MAX_ENTRIES, TTL);
+
+	/*
+	 * Generation per host:port/role, absent for a role not updated within
+	 * the TTL
+	 */
+	private final LruCache<String, Long> generations = new LruCache<>(MAX_ENTRIES, TTL);
+
+	private VerificationCache() {
+	}
+
+	/**
+	 * Generation of the role, read before logging in
+	 */
+	long generation(String hostname, int port, String username) {
+		if (TTL <= 0)
+			return 0;
+		final Long generation = this.generations.get(roleKey(hostname, port, username));
+		return generation == null ? 0 : generation;
+	}
+
+	boolean isVerified(String hostname, int port, String database, String username, String password, long generation) {
+		if (TTL <= 0)
+			return false;
+		return this.cache.get(key(hostname, port, database, username, password, generation)) != null;
+	}
+
+	void verified(String hostname, int port, String database, String username, String password, long generation) {
+		if (TTL <= 0)
+			return;
+		this.cache.put(key(hostname, port, database, username, password, generation), Boolean.TRUE);
+	}
+
+	void invalidate(String hostname, int port, String database, String username, String password, long generation) {
+		if (TTL <= 0)
+			return;
+		this.cache.remove(key(hostname, port, database, username, password, generation));
+	}
+
+	/**
+	 * The password of the role is updated, the entries of all databases are
+	 * dropped and the new password is stored for the database updated
+	 */
+	void updated(String hostname, int port, String database, String username, String newPassword) {
+		if (TTL <= 0)
+			return;
+		final long generation = GENERATION.incrementAndGet();
+		final long evictions = this.generations.getEvictions();
+		this.generations.put(roleKey(hostname, port, username), generation);
+		if (this.generations.getEvictions() != evictions)
+			this.cache.clear();
+		this.cache.put(key(hostname, port, database, username, newPassword, generation), Boolean.TRUE);
+	}
+
+	void clear() {
+		this.cache.clear();
+		this.generations.clear();
+	}
+
+	private static String key(String hostname, int port, String database, String username, String password, long generation) {
+		return Fingerprint.of(hostname, Integer.toString(port), database, username, password, Long.toString(generation));
+	}
+
+	private static String roleKey(String hostname, int port, String username) {
+		return hostname + ":" + port + "/" + username;
+	}
+
+	/*
+	 * MXBean attributes
+	 */
+	@Override
+	public int getSize() {
+		this.cache.purge();
+		return this.cache.size();
+	}
+
+	@Override
+	public long getHits() {
+		return this.cache.getHits();
+	}
+
+	@Override
+	public long getMisses() {
+		return this.cache.getMisses();
+	}
+
+	@Override
+	public long getEvictions() {
+		return this.cache.getEvictions();
+	}
+
+	@Override
+	public long getExpirations() {
+		return this.cache.getExpirations();
+	}
+}
@@ -0,0 +1,17 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+/*
+ * Statistics of the verification cache, published with JMX
+ */
+public interface VerificationCacheMXBean {
+
+	int getSize();
+
+	long getHits();
+
+	long getMisses();
+
+	long getEvictions();
+
+	long getExpirations();
+}
@@ -0,0 +1,168 @@
+package ch.pam_exchange.pam_tc.postgresql.api;
+
+import com.ca.pam.extensions.core.model.LoggerWrapper;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Warm-up when the connector is deployed.
+ *
+ * The first requests after a restart load the JDBC driver and the SSL
+ * classes and run the JSON parsing and validation in the interpreter. The
+ * warm-up does this before the first request: it loads the driver, creates
+ * the SSL context, reads uiDefinitions.json and runs a synthetic request
+ * through parsing, validation, configuration, connection properties and
+ * error classification. No server is contacted.
+ *
+ * The request path is run in rounds until the p99 latency of a round is
+ * within 10% of the previous round (steady state), or maxRounds or
+ * maxDuration milliseconds are reached. The time from deployment to steady
+ * state is logged and published on /metrics.
+ *
+ * The warm-up runs on its own thread, the deployment does not wait for it.
+ * The synthetic requests use the validation and error classification
+ * without logging, thus they do not show up in the log.
+ */
+final class Warmup {
+
+	private static final Logger LOGGER = Logger.getLogger(Warmup.class.getName());
+
+	private static final boolean ENABLED = ExtensionProperties.getBoolean("postgresql.warmup.enabled", true);
+	private static final int MAX_ROUNDS = Math.max(1, ExtensionProperties.getInt("postgresql.warmup.maxRounds", 50));
+	private static final long MAX_DURATION = ExtensionProperties.getLong("postgresql.warmup.maxDuration", 10000);
+
+	private static final int ROUND_SIZE = 200;
+	private static final double STEADY_RATIO = 1.1;
+
+	private static final byte[] REQUEST = ("{"
+			+ "\"userName\":\"warmup_user\",\"password\":\"New-Passw0rd!\",\"oldPassword\":\"Old-Passw0rd!\","
+			+ "\"extendedAttributes\":{\"changeProcess\":\"own\"},"
+			+ "\"targetApplication\":{\"name\":\"postgresql-warmup\","
+			+ "\"extendedAttributes\":{\"port\":\"5432\",\"connectionTimeout\":\"5000\",\"loginTimeout\":\"5000\",\"database\":\"postgres\",\"useTLS\":\"true\"},"
+			+ "\"targetServer\":{\"hostName\":\"localhost\",\"deviceName\":\"localhost\"}}}").getBytes(StandardCharsets.UTF_8);
+
+	private static final Exception[] EXCEPTIONS = {
+		new SQLException("FATAL: password authentication failed for user \"warmup_user\"", "28P01"),
+		new SQLException("ERROR: role \"warmup_user\" does not exist", "42704"),
+		new SQLException("Connection to localhost:5432 refused. Check that the hostname and port are correct and that the postmaster is accepting TCP/IP connections.", "08001"),
+		new SQLException("FATAL: role \"warmup_user\" is not permitted to log in", "28000"),
+		new SQLException("The server does not support SSL.", "08004")
+	};
+
+	/*
+	 * Results, -1 until the warm-up is done
+	 */
+	private static volatile long steadyStateNanos = -1;
+	private static volatile long steadyP99Nanos = -1;
+
+	private static Thread thread = null;
+
+	private Warmup() {
+	}
+
+	/**
+	 * Start the warm-up thread
+	 *
+	 * @param deployStart System.nanoTime() when the deployment started
+	 */
+	static synchronized void start(long deployStart) {
+		if (!ENABLED || thread != null)
+			return;
+		thread = new Thread(() -> run(deployStart), "postgresql-warmup");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/*
+	 * Stop the warm-up. Called when the connector is undeployed.
+	 */
+	static synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	private static void run(long deployStart) {
+		long firstP99 = -1;
+		long p99 = -1;
+		int rounds = 0;
+		try {
+			Class.forName("org.postgresql.Driver");
+			TlsContexts.getInstance().getContext(TlsContexts.getValidation());
+			UIDefinitions.getDefinition("account");
+			UIDefinitions.getDefinition("application");
+
+			final Validations validations = new Validations();
+			final long deadline = System.nanoTime() + MAX_DURATION * 1000000L;
+			final long[] latencies = new long[ROUND_SIZE];
+			while (rounds < MAX_ROUNDS && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+				for (int i = 0; i < ROUND_SIZE; i++) {
+					final long start = System.nanoTime();
+					request(validations, i);
+					latencies[i] = System.nanoTime() - start;
+				}
+				rounds++;
+				Arrays.sort(latencies);
+				final long previous = p99;
+				p99 = latencies[(int) Math.ceil(0.99 * ROUND_SIZE) - 1];
+				if (firstP99 < 0)
+					firstP99 = p99;
+				if (previous > 0 && p99 <= previous * STEADY_RATIO && previous <= p99 * STEADY_RATIO)
+					break;
+			}
+		}
+		catch (Exception e) {
+			LOGGER.log(Level.WARNING, LoggerWrapper.logMessage("Warm-up failed"), e);
+		}
+		finally {
+			TargetConfig.clearCache();
+		}
+		if (Thread.currentThread().isInterrupted())
+			return;
+
+		steadyStateNanos = System.nanoTime() - deployStart;
+		steadyP99Nanos = p99;
+		LOGGER.info(LoggerWrapper.logMessage("Warm-up done, deployment to steady state " + steadyStateNanos / 1000000 + " ms, "
+				+ rounds + " rounds, request path p99 " + firstP99 / 1000 + " us first round, " + p99 / 1000 + " us last round"));
+	}
+
+	/*
+	 * One synthetic request, as far as it runs without a server
+	 */
+	private static void request(Validations validations, int i) {
+		try {
+			validations.check("account", new String(REQUEST, StandardCharsets.UTF_8));
+		}
+		catch (Exception e) {
+			/* the outcome of the validation does not matter */
+		}
+		try {
+			final PostgreSQL postgresql = new PostgreSQL(AccountRequest.parse(REQUEST));
+			postgresql.buildConnectionProperties("warmup_user", "Old-Passw0rd!");
+			postgresql.classify(EXCEPTIONS[i % EXCEPTIONS.length], "warmup_user", false);
+		}
+		catch (Exception e) {
+			/* as above */
+		}
+	}
+
+	/*
+	 * Nanoseconds from deployment to steady state, -1 if not done
+	 */
+	static long getSteadyStateNanos() {
+		return steadyStateNanos;
+	}
+
+	/*
+	 * p99 latency of the request path in the last round, -1 if not done
+	 */
+	static long getSteadyP99Nanos() {
+		return steadyP99Nanos;
+	}
+}